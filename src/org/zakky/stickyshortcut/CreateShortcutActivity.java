@@ -20,51 +20,109 @@ import static org.zakky.stickyshortcut.LauncherActivity.EXTRA_TARGET_FQCN;
 import static org.zakky.stickyshortcut.LauncherActivity.EXTRA_TARGET_LABEL;
 import static org.zakky.stickyshortcut.LauncherActivity.EXTRA_TARGET_PACKAGE;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
-
-import org.zakky.stickyshortcut.icon.BadgeIconCreator;
-import org.zakky.stickyshortcut.icon.SandwichIconCreator;
-import org.zakky.stickyshortcut.icon.SandwichIconCreator.IconInfo;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.zakky.stickyshortcut.Metrics.Outcome;
+import org.zakky.stickyshortcut.Metrics.Stage;
+import org.zakky.stickyshortcut.catalog.AppCatalog;
+import org.zakky.stickyshortcut.catalog.AppInfo;
+import org.zakky.stickyshortcut.catalog.AppSearchIndex;
+import org.zakky.stickyshortcut.catalog.ThumbnailLoader;
+import org.zakky.stickyshortcut.icon.BitmapPool;
+import org.zakky.stickyshortcut.icon.DeferredIconDrawable;
+import org.zakky.stickyshortcut.icon.IconSizeResolver;
+import org.zakky.stickyshortcut.icon.IconStyle;
+import org.zakky.stickyshortcut.icon.IconStyle.Layer;
+import org.zakky.stickyshortcut.icon.IconStyle.Tint;
+import org.zakky.stickyshortcut.icon.LayerCache;
+import org.zakky.stickyshortcut.icon.LayerShape;
+import org.zakky.stickyshortcut.icon.RenderGraph;
+import org.zakky.stickyshortcut.icon.RenderScheduler;
+import org.zakky.stickyshortcut.icon.RenderScheduler.Priority;
+import org.zakky.stickyshortcut.icon.ShortcutIconCache;
 import org.zakky.stickyshortcut.icon.ShortcutIconCreator;
 
 import yanzm.products.quickaction.lib.ActionItem;
 import yanzm.products.quickaction.lib.QuickAction;
 import android.app.Activity;
-import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Process;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.Window;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.BaseAdapter;
+import android.widget.EditText;
 import android.widget.GridView;
 import android.widget.LinearLayout;
+import android.widget.PopupWindow;
 import android.widget.TextView;
+import android.widget.Toast;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
 import edu.umd.cs.findbugs.annotations.NonNull;
 
 /**
  * ショートカット作成時に呼び出され、ユーザが選択したアプリを起動するショートカットをホームに 作成します。
+ * <p>
+ * 一括作成モード(メニューから切り替えるか、 {@link #ACTION_BATCH_CREATE_SHORTCUT} で開始)では、
+ * 複数のアプリについてそれぞれスタイルを選択しておき、まとめて作成してホームアプリに
+ * {@link #ACTION_INSTALL_SHORTCUT} で追加します。
+ * </p>
  *
  * @author zaki
  */
 @DefaultAnnotation(NonNull.class)
 public final class CreateShortcutActivity extends Activity implements OnItemClickListener {
+    private static final String TAG = CreateShortcutActivity.class.getSimpleName();
+
+    /**
+     * 一括作成モードでこのアクティビティを開始するためのアクション。
+     */
+    public static final String ACTION_BATCH_CREATE_SHORTCUT =
+            "org.zakky.stickyshortcut.BATCH_CREATE_SHORTCUT";
+
+    /**
+     * ホームアプリにショートカットの追加を依頼するブロードキャストのアクション。
+     * {@code com.android.launcher.permission.INSTALL_SHORTCUT} パーミッションが必要。
+     */
+    private static final String ACTION_INSTALL_SHORTCUT =
+            "com.android.launcher.action.INSTALL_SHORTCUT";
+
+    /**
+     * {@link #ACTION_INSTALL_SHORTCUT} で、同じ名前・インテントのショートカットがあれば追加しないよう指示するエクストラ。
+     */
+    private static final String EXTRA_SHORTCUT_DUPLICATE = "duplicate";
+
+    private static final int MENU_BATCH_MODE = Menu.FIRST;
+
+    private static final int MENU_BATCH_INSTALL = Menu.FIRST + 1;
+
+    private static final int MENU_BATCH_CLEAR = Menu.FIRST + 2;
 
     /** ドロイド君ショートカットアイコンを作成する際の、オリジナルアイコンの拡大率 */
     private static final float SCALE_FOR_DROID = 0.9f;
@@ -72,88 +130,196 @@ public final class CreateShortcutActivity extends Activity implements OnItemClic
     /** 矢印ショートカットアイコンを作成する際の、オリジナルアイコンの拡大率 */
     private static final float SCALE_FOR_ARROW = 0.92f;
 
-    /**
-     * バッジアイコンリスト。
-     */
-    private static final IconInfo[] ICON_INFO_LIST = {
-            new IconInfo(R.drawable.arrow_dro02_72, R.drawable.arrow_dro01_72,
-                    R.drawable.arrow_dro02_60, R.drawable.arrow_dro01_60,
-                    R.drawable.arrow_dro02_48, R.drawable.arrow_dro01_48,
-                    R.drawable.arrow_dro02_44, R.drawable.arrow_dro01_44,
-                    R.drawable.arrow_dro02_36, R.drawable.arrow_dro01_36,
-                    R.drawable.arrow_dro02_32, R.drawable.arrow_dro01_32, SCALE_FOR_DROID, 0.0f,
-                    1.0f - SCALE_FOR_DROID),
-            new IconInfo(R.drawable.arrow_blue02_72, R.drawable.arrow_blue01_72,
-                    R.drawable.arrow_blue02_60, R.drawable.arrow_blue01_60,
-                    R.drawable.arrow_blue02_48, R.drawable.arrow_blue01_48,
-                    R.drawable.arrow_blue02_44, R.drawable.arrow_blue01_44,
-                    R.drawable.arrow_blue02_36, R.drawable.arrow_blue01_36,
-                    R.drawable.arrow_blue02_32, R.drawable.arrow_blue01_32, SCALE_FOR_ARROW,
-                    1.0f - SCALE_FOR_ARROW, 0.0f),
-            new IconInfo(R.drawable.arrow_green02_72, R.drawable.arrow_green01_72,
-                    R.drawable.arrow_green02_60, R.drawable.arrow_green01_60,
-                    R.drawable.arrow_green02_48, R.drawable.arrow_green01_48,
-                    R.drawable.arrow_green02_44, R.drawable.arrow_green01_44,
-                    R.drawable.arrow_green02_36, R.drawable.arrow_green01_36,
-                    R.drawable.arrow_green02_32, R.drawable.arrow_green01_32, SCALE_FOR_ARROW,
-                    1.0f - SCALE_FOR_ARROW, 0.0f),
-            new IconInfo(R.drawable.arrow_pink02_72, R.drawable.arrow_pink01_72,
-                    R.drawable.arrow_pink02_60, R.drawable.arrow_pink01_60,
-                    R.drawable.arrow_pink02_48, R.drawable.arrow_pink01_48,
-                    R.drawable.arrow_pink02_44, R.drawable.arrow_pink01_44,
-                    R.drawable.arrow_pink02_36, R.drawable.arrow_pink01_36,
-                    R.drawable.arrow_pink02_32, R.drawable.arrow_pink01_32, SCALE_FOR_ARROW,
-                    1.0f - SCALE_FOR_ARROW, 0.0f),
-            new IconInfo(R.drawable.arrow_white02_72, R.drawable.arrow_white01_72,
-                    R.drawable.arrow_white02_60, R.drawable.arrow_white01_60,
-                    R.drawable.arrow_white02_48, R.drawable.arrow_white01_48,
-                    R.drawable.arrow_white02_44, R.drawable.arrow_white01_44,
-                    R.drawable.arrow_white02_36, R.drawable.arrow_white01_36,
-                    R.drawable.arrow_white02_32, R.drawable.arrow_white01_32, SCALE_FOR_ARROW,
-                    1.0f - SCALE_FOR_ARROW, 0.0f),
-            new IconInfo(R.drawable.arrow_black02_72, R.drawable.arrow_black01_72,
-                    R.drawable.arrow_black02_60, R.drawable.arrow_black01_60,
-                    R.drawable.arrow_black02_48, R.drawable.arrow_black01_48,
-                    R.drawable.arrow_black02_44, R.drawable.arrow_black01_44,
-                    R.drawable.arrow_black02_36, R.drawable.arrow_black01_36,
-                    R.drawable.arrow_black02_32, R.drawable.arrow_black01_32, SCALE_FOR_ARROW,
-                    1.0f - SCALE_FOR_ARROW, 0.0f),
-    };
+    /** 矢印の下側の画像のグラデーションの開始位置(アイコンの高さに対する割合)。 */
+    private static final float ARROW_BASE_TINT_START = 0.51f;
 
-    private static final int[] ICON_SIZE_CONFIG = {
-            makeConfig(960, 72), makeConfig(800, 60), makeConfig(480, 44), makeConfig(0, 32),
-    };
+    /** 矢印の上側の画像のグラデーションの開始位置(アイコンの高さに対する割合)。 */
+    private static final float ARROW_TINT_START = 0.45f;
 
-    private static int makeConfig(int border, int size) {
-        if (border < 0 || size < 0) {
-            throw new RuntimeException("unexpected icon size config. border=" + border + ", size="
-                    + size);
-        }
-        final int config = (border << 16) | (size & 0xFFFF);
-        return config;
+    /** 矢印のグラデーションの終了位置(アイコンの高さに対する割合)。 */
+    private static final float ARROW_TINT_END = 0.97f;
+
+    /** 矢印の左上の縁に重ねるハイライトの色。元の矢印画像の面取りに合わせる。 */
+    private static final int ARROW_HIGHLIGHT = 0x66FFFFFF;
+
+    /** 矢印の右下の縁に重ねる影の色。元の矢印画像の面取りに合わせる。 */
+    private static final int ARROW_SHADOW = 0x8C000000;
+
+    private static Tint arrowBaseTint(int startColor, int endColor) {
+        return new Tint(startColor, endColor, ARROW_BASE_TINT_START, ARROW_TINT_END,
+                ARROW_HIGHLIGHT, ARROW_SHADOW);
     }
 
-    private static int getBorderFromConfig(int config) {
-        return (config >> 16) & 0xFFFF;
+    private static Tint arrowTint(int startColor, int endColor) {
+        return new Tint(startColor, endColor, ARROW_TINT_START, ARROW_TINT_END,
+                ARROW_HIGHLIGHT, ARROW_SHADOW);
     }
 
-    private static int getSizeFromConfig(int config) {
-        return (config & 0xFFFF);
+    /**
+     * 矢印ショートカットアイコンのスタイルを返します。矢印の形はアイコンの大きさに合わせて描画し、指定された色で着色します。
+     */
+    private static IconStyle arrowStyle(String id, Tint baseTint, Tint arrowTint) {
+        return IconStyle.builder(id)
+                .add(Layer.shape(LayerShape.ARROW_TAIL).tint(baseTint))
+                .add(Layer.appIcon().transform(SCALE_FOR_ARROW, 1.0f - SCALE_FOR_ARROW, 0.0f))
+                .add(Layer.shape(LayerShape.ARROW_HEAD).tint(arrowTint))
+                .build();
     }
 
+    /**
+     * 候補アイコンのスタイル。 {@link QuickAction} にこの順に並べる。
+     */
+    private static final IconStyle[] ICON_STYLES = {
+            IconStyle.builder("badge-none").add(Layer.appIcon()).build(),
+            IconStyle.builder("droid")
+                    .add(Layer.resource(R.drawable.arrow_dro02_72, R.drawable.arrow_dro02_60,
+                            R.drawable.arrow_dro02_48, R.drawable.arrow_dro02_44,
+                            R.drawable.arrow_dro02_36, R.drawable.arrow_dro02_32))
+                    .add(Layer.appIcon().transform(SCALE_FOR_DROID, 0.0f, 1.0f - SCALE_FOR_DROID))
+                    .add(Layer.resource(R.drawable.arrow_dro01_72, R.drawable.arrow_dro01_60,
+                            R.drawable.arrow_dro01_48, R.drawable.arrow_dro01_44,
+                            R.drawable.arrow_dro01_36, R.drawable.arrow_dro01_32))
+                    .build(),
+            arrowStyle("arrow-blue", arrowBaseTint(0xFF4CA6C3, 0xFF266392),
+                    arrowTint(0xFFB3E8F1, 0xFF248AB6)),
+            arrowStyle("arrow-green", arrowBaseTint(0xFF4CC04B, 0xFF258825),
+                    arrowTint(0xFFD8F2B1, 0xFF30B521)),
+            arrowStyle("arrow-pink", arrowBaseTint(0xFFC0477B, 0xFF88233D),
+                    arrowTint(0xFFF1B3D9, 0xFFB6243D)),
+            arrowStyle("arrow-white", arrowBaseTint(0xFFC4C4C4, 0xFF8E8E8E),
+                    arrowTint(0xFFF4F4F4, 0xFFB1B1B1)),
+            arrowStyle("arrow-black", arrowBaseTint(0xFF363636, 0xFF1B1B1B),
+                    arrowTint(0xFFB0B0B0, 0xFF212121)),
+    };
+
+    /**
+     * {@link #ICON_STYLES} をコンパイルした描画グラフ。着色済みの矢印などの中間画像を、すべてのアプリで共有する。
+     */
+    private static final RenderGraph STYLE_GRAPH = RenderGraph.compile(ICON_STYLES);
+
+    /**
+     * 一括作成のブロードキャストに直接格納するアイコンの最大ピクセル数(幅・高さ)。 xhdpi のホームアプリのアイコンの大きさ。
+     * 一括作成では多数のブロードキャストを続けて送るため、 xxxhdpi の大きさのままではバインダのバッファを圧迫する。
+     */
+    private static final int MAX_BATCH_INLINE_ICON_SIZE = 96;
+
+    /** グリッドの表示範囲の前後で、サムネイルを先読みするアイテム数 */
+    private static final int PREFETCH_ITEMS = 12;
+
+    /** グリッドのスクロールが止まってから、表示中のアプリの候補アイコンを先行して作成し始めるまでの時間(ミリ秒) */
+    private static final long PRERENDER_DELAY_MILLIS = 700L;
+
+    /** 以前のバージョンがショートカットアイコンを保存していたディレクトリ名。 */
+    private static final String LEGACY_ICON_DIR_NAME = "delivered_icons";
+
+    /**
+     * このプロセスで、以前のバージョンのディレクトリの削除を開始済みであれば {@code true}。
+     * <p>
+     * UI スレッドからのみアクセスすること。
+     * </p>
+     */
+    private static boolean legacyIconDirDeleted_ = false;
+
     /**
      * アプリ一覧表示用グリッド。
      */
     private GridView appGrid_;
 
     /**
-     * アプリ一覧グリッド構築時のプログレス
+     * アプリ一覧を絞り込むための入力欄。
+     */
+    private EditText filter_;
+
+    /**
+     * 実行中のアプリ一覧取得タスク。
+     * <p>
+     * UI スレッドからのみアクセスすること。
+     * </p>
+     */
+    @CheckForNull
+    private LoadAppListTask loadTask_ = null;
+
+    /**
+     * グリッドに表示中のアプリ一覧。
+     * <p>
+     * UI スレッドからのみアクセスすること。
+     * </p>
+     */
+    @CheckForNull
+    private List<AppInfo> shownApps_ = null;
+
+    /**
+     * 候補アイコンの作成を実行するスケジューラ。
+     */
+    private RenderScheduler scheduler_;
+
+    /**
+     * 実行中の先行作成。
+     * <p>
+     * UI スレッドからのみアクセスすること。
+     * </p>
+     */
+    @CheckForNull
+    private Prerender prerender_ = null;
+
+    /**
+     * 作成結果を UI スレッドへ戻すためのハンドラ。
+     */
+    private final Handler handler_ = new Handler();
+
+    /**
+     * スクロールが止まってから {@link #PRERENDER_DELAY_MILLIS} 後に先行作成を開始するためのタスク。
+     */
+    private final Runnable prerenderTrigger_ = new Runnable() {
+        @Override
+        public void run() {
+            startPrerender();
+        }
+    };
+
+    /**
+     * 作成中の候補アイコン群。
+     * <p>
+     * UI スレッドからのみアクセスすること。
+     * </p>
+     */
+    @CheckForNull
+    private RenderBatch pendingRenders_ = null;
+
+    /**
+     * 作成が間に合わないうちに選択された候補アイコンの、作成の要求。完成したらショートカットを作成して終了する。
+     * <p>
+     * UI スレッドからのみアクセスすること。
+     * </p>
+     */
+    @CheckForNull
+    private RenderScheduler.Ticket pendingChoice_ = null;
+
+    /**
+     * 一括作成モードであれば {@code true}。
+     * <p>
+     * UI スレッドからのみアクセスすること。
+     * </p>
+     */
+    private boolean batchMode_ = false;
+
+    /**
+     * 一括作成モードで選択されたアプリとスタイル。キーはアプリを識別する文字列で、選択した順に並ぶ。
+     * <p>
+     * UI スレッドからのみアクセスすること。
+     * </p>
+     */
+    private final Map<String, BatchInstall.Item> selection_ =
+            new LinkedHashMap<String, BatchInstall.Item>();
+
+    /**
+     * 実行中の一括作成。
      * <p>
      * UI スレッドからのみアクセスすること。
      * </p>
      */
     @CheckForNull
-    private ProgressDialog progressDialog_ = null;
+    private BatchInstall batchInstall_ = null;
 
     /**
      * アプリ一覧のグリッドを用意します。
@@ -162,6 +328,11 @@ public final class CreateShortcutActivity extends Activity implements OnItemClic
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // アプリ一覧の取得中は、タイトルバーにプログレスを表示する。
+        requestWindowFeature(Window.FEATURE_INDETERMINATE_PROGRESS);
+        // 一括作成の進捗は、タイトルバーのプログレスバーに表示する。
+        requestWindowFeature(Window.FEATURE_PROGRESS);
+
         /*
          * アプリ一覧をユーザに提示するためのグリッドを用意します。
          */
@@ -169,248 +340,1396 @@ public final class CreateShortcutActivity extends Activity implements OnItemClic
 
         appGrid_ = (GridView) findViewById(R.id.grid);
         appGrid_.setOnItemClickListener(this);
+        filter_ = (EditText) findViewById(R.id.filter);
+        filter_.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                // 何もしない
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                // 何もしない
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                final AppsAdapter adapter = (AppsAdapter) appGrid_.getAdapter();
+                if (adapter != null) {
+                    adapter.setFilter(s.toString());
+                    schedulePrerender();
+                }
+            }
+        });
+        appGrid_.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                    int totalItemCount) {
+                final AppsAdapter adapter = (AppsAdapter) appGrid_.getAdapter();
+                if (adapter != null) {
+                    adapter.prefetch(firstVisibleItem, visibleItemCount);
+                }
+            }
+
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                if (scrollState == SCROLL_STATE_IDLE) {
+                    schedulePrerender();
+                } else {
+                    cancelPrerender();
+                }
+            }
+        });
+
+        scheduler_ = StickyShortcutApplication.getRenderScheduler(this);
+        deleteLegacyIconDir(getApplicationContext());
+
+        final Intent intent = getIntent();
+        batchMode_ = intent != null && ACTION_BATCH_CREATE_SHORTCUT.equals(intent.getAction());
+        updateTitle();
+    }
+
+    /**
+     * 以前のバージョンがショートカットアイコンを参照で渡すために保存していたディレクトリを、プロセスごとに一度だけ削除します。
+     * 参照するホームアプリはないため、残しておく必要はありません。
+     *
+     * @param appContext アプリケーションコンテキスト。
+     */
+    private static void deleteLegacyIconDir(Context appContext) {
+        if (legacyIconDirDeleted_) {
+            return;
+        }
+        legacyIconDirDeleted_ = true;
+        final File dir = new File(appContext.getFilesDir(), LEGACY_ICON_DIR_NAME);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final File[] files = dir.listFiles();
+                if (files == null) {
+                    return;
+                }
+                for (File file : files) {
+                    file.delete();
+                }
+                dir.delete();
+            }
+        }, "LegacyIconDirCleaner").start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // スケジューラはアプリケーションのものなので、このアクティビティの要求だけを取り消す。
+        cancelPendingChoice();
+        cancelPendingRenders();
+        cancelPrerender();
+        final BatchInstall batchInstall = batchInstall_;
+        if (batchInstall != null) {
+            batchInstall.cancel();
+        }
+        batchInstall_ = null;
+        if (isFinishing()) {
+            // 共有の中間画像は次にこの画面を開くまで使わないので、作成中のものを除いて返却する。
+            STYLE_GRAPH.evictPlates();
+        }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        super.onCreateOptionsMenu(menu);
+        menu.add(Menu.NONE, MENU_BATCH_MODE, Menu.NONE, R.string.menu_batch_mode);
+        menu.add(Menu.NONE, MENU_BATCH_INSTALL, Menu.NONE, R.string.menu_batch_install);
+        menu.add(Menu.NONE, MENU_BATCH_CLEAR, Menu.NONE, R.string.menu_batch_clear);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        final boolean installing = (batchInstall_ != null);
+        menu.findItem(MENU_BATCH_MODE).setTitle(
+                batchMode_ ? R.string.menu_single_mode : R.string.menu_batch_mode)
+                .setEnabled(!installing);
+        menu.findItem(MENU_BATCH_INSTALL).setVisible(batchMode_)
+                .setEnabled(!installing && !selection_.isEmpty());
+        menu.findItem(MENU_BATCH_CLEAR).setVisible(batchMode_)
+                .setEnabled(!installing && !selection_.isEmpty());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+        case MENU_BATCH_MODE:
+            batchMode_ = !batchMode_;
+            updateTitle();
+            return true;
+        case MENU_BATCH_INSTALL:
+            startBatchInstall();
+            return true;
+        case MENU_BATCH_CLEAR:
+            selection_.clear();
+            updateTitle();
+            return true;
+        default:
+            return super.onOptionsItemSelected(item);
+        }
+    }
+
+    /**
+     * 一括作成モードであれば、選択済みのアプリの数をタイトルに表示します。
+     */
+    private void updateTitle() {
+        if (batchMode_) {
+            setTitle(getString(R.string.batch_title, Integer.valueOf(selection_.size())));
+        } else {
+            setTitle(R.string.app_name);
+        }
     }
 
     /**
-     * アクティビティ開始処理として、アプリ一覧を取得してグリッドにセットするためのタスクを 実行します。
+     * アクティビティ開始処理として、アプリ一覧をグリッドにセットします。
+     * <p>
+     * {@link AppCatalog} が最新のアプリ一覧を保持していればそのまま使用し、そうでなければ
+     * アプリ一覧を取得してグリッドにセットするためのタスクを実行します。
+     * </p>
      */
     @Override
     protected void onStart() {
         super.onStart();
 
+        final List<AppInfo> fresh = AppCatalog.getInstance(this).getIfFresh();
+        if (fresh != null) {
+            setApps(fresh);
+            return;
+        }
+        if (loadTask_ != null) {
+            // 前回開始時のタスクがまだ実行中
+            return;
+        }
         final LoadAppListTask task = new LoadAppListTask();
+        loadTask_ = task;
+        setProgressBarIndeterminateVisibility(true);
         task.execute();
-        startProgress();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        Metrics.getInstance().saveInBackground(this);
     }
 
     @Override
     protected void onStop() {
         super.onStop();
 
-        dismissProgress();
+        final AppsAdapter adapter = (AppsAdapter) appGrid_.getAdapter();
+        if (adapter != null) {
+            adapter.cancelPrefetch();
+        }
+        cancelPrerender();
     }
 
     /**
-     * プログレスダイアログを作成して表示します。
+     * アプリ一覧をグリッドにセットします。既に同じアプリ一覧を表示している場合は何もしません。
+     * <p>
+     * アダプタが既にあれば内容を置き換えるため、スクロール位置は維持されます。
+     * </p>
+     *
+     * @param appList アプリ一覧。
      */
-    private void startProgress() {
-        dismissProgress();
-
-        final ProgressDialog progress = new ProgressDialog(this);
-        final String message = getString(R.string.shortcut_progressdialog_title);
-        progress.setMessage(message);
-        progress.setCancelable(false);
-        progress.show();
-
-        progressDialog_ = progress;
+    private void setApps(List<AppInfo> appList) {
+        if (appList == shownApps_) {
+            return;
+        }
+        // 検索インデックスは、カタログの読み込み時にワーカースレッドで作成済み。
+        final AppSearchIndex index = AppCatalog.getInstance(this).getSearchIndex(appList);
+        final AppsAdapter adapter = (AppsAdapter) appGrid_.getAdapter();
+        if (adapter == null) {
+            final AppsAdapter created = new AppsAdapter(getApplicationContext(), appList, index);
+            created.setFilter(filter_.getText().toString());
+            appGrid_.setAdapter(created);
+        } else {
+            adapter.replace(appList, index);
+        }
+        shownApps_ = appList;
+        schedulePrerender();
     }
 
     /**
-     * プログレスダイアログが表示されていれば中止します。
-     * <p>
-     * このメソッドが正常に完了した後は、 {@link #progressDialog_} が {@code null} に なります。
-     * </p>
+     * 新たに見つかったアプリを、グリッドの並び順の位置に挿入します。
+     *
+     * @param chunk ラベル順に並んだアプリ。
      */
-    private void dismissProgress() {
-        final ProgressDialog progress = progressDialog_;
-        if (progress != null) {
-            progress.dismiss();
+    private void mergeApps(List<AppInfo> chunk) {
+        final AppsAdapter adapter = (AppsAdapter) appGrid_.getAdapter();
+        if (adapter == null) {
+            final AppsAdapter created = new AppsAdapter(getApplicationContext(), chunk, null);
+            created.setFilter(filter_.getText().toString());
+            appGrid_.setAdapter(created);
+        } else {
+            adapter.merge(chunk);
         }
-        progressDialog_ = null;
+        // グリッドの内容はどのカタログとも一致しなくなった
+        shownApps_ = null;
+        schedulePrerender();
     }
 
     /**
      * アプリ一覧で、あるアプリがクリックされたときのアクションです。
+     * <p>
+     * {@link QuickAction} はグリッドのサムネイルをプレースホルダとして即座に表示し、オリジナルアイコンの取得と
+     * 各候補アイコンの作成はバックグラウンドで行って、完成したものから差し替えます。候補を選ばずに
+     * {@link QuickAction} が閉じられた場合は、作成を中止します。
+     * </p>
      */
     @Override
     public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
         final AppInfo appInfo = (AppInfo) parent.getItemAtPosition(position);
 
+        // 前回タップ分の作成が終わっていなければ中止する。先行作成もタップ分の作成を優先して中止する。
+        cancelPendingChoice();
+        cancelPendingRenders();
+        cancelPrerender();
+
+        // オリジナルアイコンの取得はワーカースレッドで行う。それまではグリッドのサムネイルを表示する。
+        final int iconSize = IconSizeResolver.getLauncherIconSize(this);
+        final Bitmap thumbnail = ThumbnailLoader.getInstance(this).getCached(appInfo,
+                getGridIconSize(this));
+
         // QuickAction を表示し、ユーザにアイコンを選択してもらう。
         final QuickAction qa = new QuickAction(view);
-        final long start = System.nanoTime();
-
-        ActionItem chart = buildIconCandidate(appInfo, new BadgeIconCreator(
-                BadgeIconCreator.NO_BADGE));
-        qa.addActionItem(chart);
-        for (IconInfo iconInfo : ICON_INFO_LIST) {
-            chart = buildIconCandidate(appInfo, new SandwichIconCreator(iconInfo));
-            qa.addActionItem(chart);
+        final RenderBatch batch = new RenderBatch(ICON_STYLES.length);
+        for (IconStyle style : ICON_STYLES) {
+            qa.addActionItem(buildIconCandidate(qa, appInfo, thumbnail, iconSize, style, batch));
         }
-        final long end = System.nanoTime();
+        pendingRenders_ = batch;
+        qa.setOnDismissListener(new PopupWindow.OnDismissListener() {
+            @Override
+            public void onDismiss() {
+                // 候補の選択と同じイベントで閉じられた場合に選択の処理が先に済むよう、後で中止する。
+                handler_.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (pendingRenders_ == batch) {
+                            cancelPendingRenders();
+                        }
+                    }
+                });
+            }
+        });
 
-        Log.i("DEBUG", "t: " + TimeUnit.NANOSECONDS.toMillis(end - start) + "ms");
         qa.show();
     }
 
     /**
-     * {@link QuickAction} に表示する、ショートカットアイコン候補を構築します。
-     * 候補は、クリックされるとショートカット作成インテントをリザルトとしてセットして {@link CreateShortcutActivity}
-     * を終了します。
+     * 候補アイコンを作成するクリエータを、 {@link QuickAction} に並べる順に返します。
      *
-     * @param appInfo 対象アプリ情報。
-     * @return {@link ActionItem}。
+     * @param session 対象アプリのオリジナルアイコンの {@link RenderGraph.Session}。
+     *            アプリアイコンの縮小画像や共通の中間画像をスタイル間で共有する。
+     * @return クリエータ。
      */
-    private ActionItem buildIconCandidate(final AppInfo appInfo, ShortcutIconCreator builder) {
-        final BitmapDrawable bd = (BitmapDrawable) appInfo.getIcon();
-        final Bitmap originalIcon = bd.getBitmap();
-
-        final Bitmap shortcutIcon = builder.build(getApplicationContext(), originalIcon);
-
-        final ActionItem item = new ActionItem();
-        item.setIcon(new BitmapDrawable(shortcutIcon));
-        item.setOnClickListener(new View.OnClickListener() {
-            /**
-             * アイコンが選択されたので、選択されたアイコンでショートカットを作成し アクティビティ自体を終了する。
-             */
-            @Override
-            public void onClick(View v) {
-                final Intent result = buildResultIntent(appInfo, shortcutIcon);
-                CreateShortcutActivity.this.setResult(RESULT_OK, result);
-                CreateShortcutActivity.this.finish();
-            }
-        });
-        return item;
+    private static ShortcutIconCreator[] createBuilders(RenderGraph.Session session) {
+        final ShortcutIconCreator[] builders = new ShortcutIconCreator[ICON_STYLES.length];
+        for (int i = 0; i < ICON_STYLES.length; i++) {
+            builders[i] = session.creatorFor(ICON_STYLES[i]);
+        }
+        return builders;
     }
 
     /**
-     * このアクティビティの {@code result} として使用される、ショートカット作成インテントを 構築して返します。
+     * 一括作成モードで、アプリのスタイルを選択します。既に選択済みのアプリであれば、スタイルを置き換えます。
      *
-     * @param appInfo 作成するショートカットが対象とするアプリ情報。
-     * @param icon ショートカットセットするアイコン。
-     * @return {@code result} インテント。
+     * @param appInfo 対象アプリ情報。
+     * @param style 選択されたスタイル。
      */
-    private Intent buildResultIntent(AppInfo appInfo, Bitmap icon) {
-        // ショートカット作成
-        final Intent shortcutIntent = new Intent("org.zakky.stickyshortcut.LAUNCH");
-        shortcutIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-        shortcutIntent.setClassName(getApplicationContext().getPackageName(),
-                LauncherActivity.class.getCanonicalName());
-
-        shortcutIntent.putExtra(EXTRA_TARGET_PACKAGE, appInfo.getPackageName());
-        shortcutIntent.putExtra(EXTRA_TARGET_FQCN, appInfo.getActivityFqcn());
-        shortcutIntent.putExtra(EXTRA_TARGET_LABEL, appInfo.getLabel());
+    private void select(AppInfo appInfo, IconStyle style) {
+        selection_.put(appKey(appInfo), new BatchInstall.Item(appInfo, style));
+        updateTitle();
+    }
 
-        // 作成したショートカットを設定するIntent。ここでショートカット名とアイコンも設定。
-        final Intent result = new Intent();
-        result.putExtra(Intent.EXTRA_SHORTCUT_INTENT, shortcutIntent);
-        result.putExtra(Intent.EXTRA_SHORTCUT_ICON, icon);
-        result.putExtra(Intent.EXTRA_SHORTCUT_NAME, appInfo.getLabel());
+    private static String appKey(AppInfo appInfo) {
+        return appInfo.getPackageName() + '/' + appInfo.getActivityFqcn();
+    }
 
-        return result;
+    /**
+     * 一括作成モードで選択済みのアプリのショートカットを、まとめて作成してホームアプリに追加します。
+     */
+    private void startBatchInstall() {
+        if (batchInstall_ != null || selection_.isEmpty()) {
+            return;
+        }
+        // 一括作成を優先し、候補アイコンの作成と先行作成は中止する。
+        cancelPendingRenders();
+        cancelPrerender();
+
+        final List<BatchInstall.Item> items = new ArrayList<BatchInstall.Item>(selection_.values());
+        final BatchInstall batchInstall = new BatchInstall(getApplicationContext(), scheduler_,
+                items, new BatchInstall.Listener() {
+                    @Override
+                    public void onItemFinished(BatchInstall.Item item, int finished, int total) {
+                        setProgress(Window.PROGRESS_END * finished / total);
+                        setTitle(getString(R.string.batch_installing, Integer.valueOf(finished),
+                                Integer.valueOf(total)));
+                    }
+
+                    @Override
+                    public void onFinished(List<BatchInstall.Item> failures) {
+                        onBatchInstallFinished(items, failures);
+                    }
+                });
+        batchInstall_ = batchInstall;
+        setProgress(0);
+        setProgressBarVisibility(true);
+        batchInstall.start();
     }
 
     /**
-     * アプリ一覧を取得し、 {@value CreateShortcutActivity#appGrid_} にセットするタスクです。
-     * <p>
-     * 取得処理中はキャンセル不可なプログレスダイアログを表示します。
-     * </p>
+     * 一括作成の完了時に呼び出されます。追加できたアプリを選択から外し、結果を表示します。
+     * すべて追加できた場合はアクティビティを終了します。
      *
-     * @author zaki
+     * @param items 作成したアプリ。
+     * @param failures {@code items} のうち、作成に失敗したもの。
      */
-    private final class LoadAppListTask extends AsyncTask<Void, Void, List<AppInfo>> {
-
-        @Override
-        protected List<AppInfo> doInBackground(Void... v) {
-            final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
-            mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-
-            final PackageManager pm = getPackageManager();
-            final List<ResolveInfo> apps = pm.queryIntentActivities(mainIntent, 0);
-            final List<AppInfo> appList = new ArrayList<AppInfo>(apps.size());
-            for (ResolveInfo info : apps) {
-                final String packageName = info.activityInfo.packageName;
-                if (packageName == null) {
-                    continue;
-                }
-                final String activityFqcn = info.activityInfo.name;
-                final CharSequence label = info.loadLabel(pm);
-                final Drawable icon = info.activityInfo.loadIcon(pm);
-
-                final AppInfo appInfo = new AppInfo(label.toString(), icon, activityFqcn,
-                        packageName);
-                appList.add(appInfo);
-            }
-            Collections.sort(appList, new Comparator<AppInfo>() {
-                @Override
-                public int compare(AppInfo app1, AppInfo app2) {
-                    return app1.getLabel().compareTo(app2.getLabel());
-                }
-            });
-
-            return appList;
+    private void onBatchInstallFinished(List<BatchInstall.Item> items,
+            List<BatchInstall.Item> failures) {
+        batchInstall_ = null;
+        setProgressBarVisibility(false);
+        for (BatchInstall.Item item : items) {
+            if (!failures.contains(item)) {
+                selection_.remove(appKey(item.getApp()));
+            }
         }
-
-        @Override
-        protected final void onPostExecute(List<AppInfo> appList) {
-            final AppsAdapter adapter = new AppsAdapter(getApplicationContext(), appList);
-            appGrid_.setAdapter(adapter);
-            dismissProgress();
+        updateTitle();
+
+        final int installed = items.size() - failures.size();
+        if (failures.isEmpty()) {
+            Toast.makeText(this, getString(R.string.batch_installed, Integer.valueOf(installed)),
+                    Toast.LENGTH_SHORT).show();
+            // ショートカットはブロードキャストで追加したので、呼び出し元のホームアプリには何も返さない。
+            setResult(RESULT_CANCELED);
+            finish();
+            return;
         }
+        final StringBuilder message = new StringBuilder(getString(R.string.batch_failed,
+                Integer.valueOf(installed), Integer.valueOf(failures.size())));
+        for (BatchInstall.Item failure : failures) {
+            message.append('\n').append(failure.getApp().getLabel()).append(": ")
+                    .append(failure.getFailure());
+        }
+        // 失敗したものは選択したまま残し、もう一度一括作成できるようにする。
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
     }
 
     /**
-     * アプリ一覧に表示される１つのアプリの情報を保持するクラスです。
-     *
-     * @author zaki
+     * {@link #PRERENDER_DELAY_MILLIS} 後に、グリッドに表示中のアプリの候補アイコンの先行作成を開始します。
+     * 実行中・開始待ちの先行作成は中止します。
      */
-    private static final class AppInfo {
-        /** アプリケーションのラベル */
-        private final String label_;
-
-        /** アプリケーションのアイコン */
-        private final Drawable icon_;
-
-        /** アプリケーションの FQCN */
-        private final String activityFqcn_;
-
-        /** アプリケーションのパッケージ名 */
-        private final String packageName_;
+    private void schedulePrerender() {
+        cancelPrerender();
+        handler_.postDelayed(prerenderTrigger_, PRERENDER_DELAY_MILLIS);
+    }
 
-        public AppInfo(String label, Drawable icon, String activityFqcn, String packageName) {
-            super();
-            label_ = label;
-            icon_ = icon;
-            activityFqcn_ = activityFqcn;
-            packageName_ = packageName;
+    /**
+     * 実行中・開始待ちの先行作成を中止します。作成済みの候補アイコンはキャッシュに残ります。
+     */
+    private void cancelPrerender() {
+        handler_.removeCallbacks(prerenderTrigger_);
+        final Prerender prerender = prerender_;
+        if (prerender != null) {
+            prerender.cancel();
         }
+        prerender_ = null;
+    }
 
-        /**
-         * アプリケーションのラベルを返します。
-         *
-         * @return ラベル。
-         */
-        public String getLabel() {
-            return label_;
+    /**
+     * グリッドに表示中のアプリについて、候補アイコンの先行作成を開始します。
+     */
+    private void startPrerender() {
+        final AppsAdapter adapter = (AppsAdapter) appGrid_.getAdapter();
+        if (adapter == null) {
+            return;
         }
-
-        /**
-         * アプリケーションのアイコンを返します。
-         *
-         * @return アイコン。
-         */
-        public Drawable getIcon() {
-            return icon_;
+        final int first = Math.max(0, appGrid_.getFirstVisiblePosition());
+        final int last = Math.min(adapter.getCount() - 1, appGrid_.getLastVisiblePosition());
+        if (last < first) {
+            return;
+        }
+        final List<AppInfo> visible = new ArrayList<AppInfo>(last - first + 1);
+        for (int i = first; i <= last; i++) {
+            visible.add(adapter.getItem(i));
+        }
+        final Prerender prerender = new Prerender(getApplicationContext(), scheduler_, visible);
+        prerender.start();
+        prerender_ = prerender;
+    }
+
+    /**
+     * 作成中の候補アイコンがあれば、その作成を中止します。作成済みで選択されなかった候補アイコンは
+     * {@link BitmapPool} に返却します。
+     */
+    private void cancelPendingRenders() {
+        final RenderBatch batch = pendingRenders_;
+        if (batch != null) {
+            for (Bitmap unused : batch.cancel()) {
+                releaseCandidate(unused);
+            }
+        }
+        pendingRenders_ = null;
+    }
+
+    /**
+     * 不要になった候補アイコンを {@link BitmapPool} に返却します。 {@link ShortcutIconCache}
+     * が保持しているものは共有されているため返却しません。ディスクからデコードしたものなど、
+     * {@link BitmapPool} が払い出していないものは {@link BitmapPool#release(Bitmap)} が受け付けません。
+     *
+     * @param candidate 不要になった候補アイコン。
+     */
+    private void releaseCandidate(Bitmap candidate) {
+        if (ShortcutIconCache.getInstance(this).isRetained(candidate)) {
+            return;
+        }
+        BitmapPool.getInstance().release(candidate);
+    }
+
+    /**
+     * {@link QuickAction} に表示する、ショートカットアイコン候補を構築します。
+     * 候補は、クリックされるとショートカット作成インテントをリザルトとしてセットして {@link CreateShortcutActivity}
+     * を終了します。アイコンの作成が間に合っていなければ、 UI スレッドでは作成せず、完成を待ってから終了します。
+     * 一括作成モードでは、アプリのスタイルとして選択するだけで終了しません。
+     * <p>
+     * アイコン自体は {@link RenderScheduler} で最優先で作成し、完成すると UI スレッドで候補に反映します。
+     * 同じ候補アイコンを先行作成中であれば、その結果を使用します。
+     * </p>
+     *
+     * @param qa 候補を表示する {@link QuickAction}。
+     * @param appInfo 対象アプリ情報。
+     * @param placeholder 候補アイコンの完成まで表示するプレースホルダ。グリッドのサムネイル。なければ {@code null}。
+     * @param iconSize 候補アイコンのピクセル数。
+     * @param style 候補アイコンのスタイル。
+     * @param batch 作成処理を登録する {@link RenderBatch}。
+     * @return {@link ActionItem}。
+     */
+    private ActionItem buildIconCandidate(final QuickAction qa, final AppInfo appInfo,
+            @CheckForNull Bitmap placeholder, int iconSize, final IconStyle style,
+            final RenderBatch batch) {
+        final Context appContext = getApplicationContext();
+        final DeferredIconDrawable drawable = new DeferredIconDrawable(placeholder, iconSize);
+        final String key = candidateKey(appInfo, style.getId(), iconSize);
+        final Callable<Bitmap> render = new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                final RenderGraph.Session session = batch.getSession(appContext, appInfo);
+                return renderCandidate(appContext, appInfo, batch.getVersionStamp(appContext,
+                        appInfo), session.getOriginalIcon(), session.creatorFor(style), false);
+            }
+        };
+
+        batch.add(scheduler_.submit(key, Priority.USER, render, new RenderScheduler.Callback() {
+                    @Override
+                    public void onRendered(Bitmap shortcutIcon) {
+                        if (batch.isCancelled()) {
+                            releaseCandidate(shortcutIcon);
+                            return;
+                        }
+                        drawable.setIcon(shortcutIcon);
+                        batch.onRendered(shortcutIcon);
+                    }
+
+                    @Override
+                    public void onFailed() {
+                        // 候補はプレースホルダのまま残し、選択された場合に作成し直す。
+                        if (!batch.isCancelled()) {
+                            batch.onFailed();
+                        }
+                    }
+                }));
+
+        final ActionItem item = new ActionItem();
+        item.setIcon(drawable);
+        item.setOnClickListener(new View.OnClickListener() {
+            /**
+             * アイコンが選択されたので、選択されたアイコンでショートカットを作成し アクティビティ自体を終了する。
+             */
+            @Override
+            public void onClick(View v) {
+                if (batchMode_) {
+                    // アイコンは一括作成の際にキャッシュから取得するか作成し直すため、ここでは保持しない。
+                    qa.dismiss();
+                    cancelPendingRenders();
+                    select(appInfo, style);
+                    return;
+                }
+                final Bitmap shortcutIcon = drawable.getIcon();
+                if (shortcutIcon == null) {
+                    // 作成が間に合っていないので、同じ作成に合流して完成を待つ。先に要求しておけば、
+                    // 候補アイコン群の作成を中止してもこの作成は取り消されない。
+                    qa.dismiss();
+                    waitForChoice(scheduler_.submit(key, Priority.USER, render,
+                            new RenderScheduler.Callback() {
+                                @Override
+                                public void onRendered(Bitmap rendered) {
+                                    onChoiceFinished();
+                                    finishWithShortcut(appInfo, rendered);
+                                }
+
+                                @Override
+                                public void onFailed() {
+                                    onChoiceFinished();
+                                    Toast.makeText(CreateShortcutActivity.this,
+                                            R.string.render_failed, Toast.LENGTH_SHORT).show();
+                                }
+                            }));
+                    cancelPendingRenders();
+                    return;
+                }
+                batch.setChosen(shortcutIcon);
+                cancelPendingRenders();
+                finishWithShortcut(appInfo, shortcutIcon);
+            }
+        });
+        return item;
+    }
+
+    /**
+     * 選択された候補アイコンでショートカット作成インテントをリザルトとしてセットし、アクティビティを終了します。
+     *
+     * @param appInfo 対象アプリ情報。
+     * @param shortcutIcon 選択された候補アイコン。
+     */
+    private void finishWithShortcut(AppInfo appInfo, Bitmap shortcutIcon) {
+        final Intent result = buildShortcutIntent(this, appInfo, shortcutIcon,
+                IconSizeResolver.getLauncherIconSize(this));
+        setResult(RESULT_OK, result);
+        finish();
+    }
+
+    /**
+     * 作成が間に合わないうちに選択された候補アイコンの完成を待ちます。待っている間はタイトルバーにプログレスを表示します。
+     *
+     * @param ticket 候補アイコンの作成の要求。
+     */
+    private void waitForChoice(RenderScheduler.Ticket ticket) {
+        cancelPendingChoice();
+        pendingChoice_ = ticket;
+        setProgressBarIndeterminateVisibility(true);
+    }
+
+    /**
+     * 選択された候補アイコンの作成が、成功・失敗にかかわらず完了した際に呼び出します。
+     */
+    private void onChoiceFinished() {
+        pendingChoice_ = null;
+        if (loadTask_ == null) {
+            setProgressBarIndeterminateVisibility(false);
+        }
+    }
+
+    /**
+     * 選択された候補アイコンの完成を待っていれば、待つのをやめます。
+     */
+    private void cancelPendingChoice() {
+        final RenderScheduler.Ticket ticket = pendingChoice_;
+        if (ticket != null) {
+            ticket.cancel();
+            onChoiceFinished();
+        }
+    }
+
+    /**
+     * 候補アイコンの作成を {@link RenderScheduler} で識別するキーを返します。タップ時の作成と先行作成で同じキーを使い、
+     * 同じ候補アイコンを重複して作成しないようにします。
+     */
+    private static String candidateKey(AppInfo appInfo, String styleId, int iconSize) {
+        return "candidate:" + appInfo.getPackageName() + '/' + appInfo.getActivityFqcn() + '/'
+                + styleId + '/' + iconSize;
+    }
+
+    /**
+     * 対象アプリのオリジナルアイコンを取得し、ホームアプリのアイコンの大きさに揃えます。
+     * パッケージマネージャへの問い合わせとデコードを伴うため、ワーカースレッドから呼び出すこと。
+     *
+     * @param appContext アプリケーションコンテキスト。
+     * @param appInfo 対象アプリ情報。
+     * @return オリジナルアイコン。 {@link Bitmap} のアイコンでなければ {@code null}。
+     */
+    @CheckForNull
+    private static Bitmap loadOriginalIcon(Context appContext, AppInfo appInfo) {
+        final Drawable fullIcon = appInfo.getFullIcon(appContext.getPackageManager());
+        if (!(fullIcon instanceof BitmapDrawable)) {
+            return null;
+        }
+        return IconSizeResolver.toLauncherSize(appContext, ((BitmapDrawable) fullIcon)
+                .getBitmap());
+    }
+
+    /**
+     * 候補アイコンを 1 つ作成します。作成済みのアイコンが {@link ShortcutIconCache}
+     * にあればそれを返し、なければ作成してキャッシュに追加します。
+     * 先行作成の場合は、ディスクに書き込まない先行作成用の領域に追加します。
+     *
+     * @param appContext アプリケーションコンテキスト。
+     * @param appInfo 対象アプリ情報。
+     * @param versionStamp 対象アプリの {@link ShortcutIconCache#getVersionStamp}。
+     * @param originalIcon 対象アプリのオリジナルアイコン。
+     * @param builder アイコンクリエータ。
+     * @param speculative タップされる前の先行作成であれば {@code true}。
+     * @return 候補アイコン。
+     */
+    private static Bitmap renderCandidate(Context appContext, AppInfo appInfo,
+            String versionStamp, Bitmap originalIcon, ShortcutIconCreator builder,
+            boolean speculative) {
+        final ShortcutIconCache cache = ShortcutIconCache.getInstance(appContext);
+        final ShortcutIconCache.Key key = new ShortcutIconCache.Key(appInfo.getPackageName(),
+                appInfo.getActivityFqcn(), versionStamp, builder.getStyleId(),
+                originalIcon.getWidth());
+
+        final Bitmap cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final Bitmap shortcutIcon = builder.build(appContext, originalIcon);
+        if (speculative) {
+            cache.putSpeculative(key, shortcutIcon);
+        } else {
+            cache.put(key, shortcutIcon);
+        }
+        return shortcutIcon;
+    }
+
+    /**
+     * このアクティビティの {@code result} として使用される、ショートカット作成インテントを 構築して返します。
+     * 一括作成では、同じインテントを {@link #ACTION_INSTALL_SHORTCUT} のブロードキャストに使用します。
+     * <p>
+     * アイコンは {@link Intent#EXTRA_SHORTCUT_ICON} に直接格納し、 {@code maxIconSize} より大きい場合は縮小します。
+     * ホームアプリは URI によるアイコンの指定に対応しておらず、 {@link Intent#EXTRA_SHORTCUT_ICON_RESOURCE}
+     * も APK 内のリソースしか参照できないためです。
+     * </p>
+     *
+     * @param context コンテキスト。
+     * @param appInfo 作成するショートカットが対象とするアプリ情報。
+     * @param icon ショートカットセットするアイコン。
+     * @param maxIconSize インテントに格納するアイコンの最大ピクセル数(幅・高さ)。
+     * @return {@code result} インテント。
+     */
+    private static Intent buildShortcutIntent(Context context, AppInfo appInfo, Bitmap icon,
+            int maxIconSize) {
+        // ショートカット作成
+        final Intent shortcutIntent = new Intent("org.zakky.stickyshortcut.LAUNCH");
+        shortcutIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+        shortcutIntent.setClassName(context.getPackageName(),
+                LauncherActivity.class.getCanonicalName());
+
+        shortcutIntent.putExtra(EXTRA_TARGET_PACKAGE, appInfo.getPackageName());
+        shortcutIntent.putExtra(EXTRA_TARGET_FQCN, appInfo.getActivityFqcn());
+        shortcutIntent.putExtra(EXTRA_TARGET_LABEL, appInfo.getLabel());
+
+        // 作成したショートカットを設定するIntent。ここでショートカット名とアイコンも設定。
+        final Intent result = new Intent();
+        result.putExtra(Intent.EXTRA_SHORTCUT_INTENT, shortcutIntent);
+        result.putExtra(Intent.EXTRA_SHORTCUT_NAME, appInfo.getLabel());
+        result.putExtra(Intent.EXTRA_SHORTCUT_ICON, toInlineIcon(icon, maxIconSize));
+
+        return result;
+    }
+
+    /**
+     * インテントに直接格納するアイコンを返します。 {@code maxSize} より大きい場合は縮小します。
+     *
+     * @param icon ショートカットアイコン。
+     * @param maxSize 最大ピクセル数(幅・高さ)。
+     * @return インラインで渡すアイコン。
+     */
+    private static Bitmap toInlineIcon(Bitmap icon, int maxSize) {
+        final int width = icon.getWidth();
+        final int height = icon.getHeight();
+        if (width <= maxSize && height <= maxSize) {
+            return icon;
+        }
+        final float ratio = Math.min((float) maxSize / width, (float) maxSize / height);
+        return Bitmap.createScaledBitmap(icon, Math.max(1, Math.round(width * ratio)),
+                Math.max(1, Math.round(height * ratio)), true);
+    }
+
+    /**
+     * アプリ一覧グリッドに表示するアイコンのピクセル数を返します。ホームアプリのアイコンと同じ大きさとします。
+     *
+     * @param context コンテキスト。
+     * @return アイコン画像のいっぺんのピクセル数。
+     */
+    private static int getGridIconSize(Context context) {
+        return IconSizeResolver.getLauncherIconSize(context);
+    }
+
+    /**
+     * アプリ一覧を取得し、 {@value CreateShortcutActivity#appGrid_} にセットするタスクです。
+     * <p>
+     * まず {@link AppCatalog} が保持するスナップショットをそのまま表示し、その後パッケージマネージャと突き合わせます。
+     * 突き合わせ中に新たに見つかったアプリは、ラベルを読み込んだものから順次グリッドに挿入するため、
+     * スナップショットがない初回でもすべてのアプリの読み込みを待たずに操作を始めることができます。
+     * 突き合わせが完了したら、差分を反映したアプリ一覧で置き換えます。
+     * </p>
+     *
+     * @author zaki
+     */
+    private final class LoadAppListTask extends AsyncTask<Void, List<AppInfo>, List<AppInfo>> {
+
+        /** 最初の {@link #onProgressUpdate} で受け取るスナップショットを反映済みであれば {@code true}。 */
+        private boolean snapshotShown_ = false;
+
+        @Override
+        @CheckForNull
+        @SuppressWarnings("unchecked")
+        protected List<AppInfo> doInBackground(Void... v) {
+            final Metrics metrics = Metrics.getInstance();
+            final AppCatalog catalog = AppCatalog.getInstance(getApplicationContext());
+            final long loadStart = System.nanoTime();
+            final List<AppInfo> snapshot = catalog.getSnapshot();
+            metrics.record(Stage.CATALOG_LOAD, loadStart, snapshot.isEmpty() ? Outcome.CACHE_MISS
+                    : Outcome.CACHE_HIT);
+            publishProgress(snapshot);
+
+            final long reconcileStart = System.nanoTime();
+            final List<AppInfo> reconciled = catalog.reconcile(getPackageManager(),
+                    new AppCatalog.ChunkListener() {
+                        @Override
+                        public void onChunk(List<AppInfo> chunk) {
+                            publishProgress(chunk);
+                        }
+                    });
+            metrics.record(Stage.CATALOG_RECONCILE, reconcileStart,
+                    (reconciled == null) ? Outcome.CACHE_HIT : Outcome.CACHE_MISS);
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                // ラベルの逐次読み込みと並列読み込みの所要時間を比較して、ログに出力する。
+                catalog.measureLabelResolution(getPackageManager(), 1);
+                catalog.measureLabelResolution(getPackageManager(), AppCatalog.LABEL_THREADS);
+            }
+            return reconciled;
+        }
+
+        @Override
+        protected void onProgressUpdate(List<AppInfo>... apps) {
+            if (snapshotShown_) {
+                mergeApps(apps[0]);
+                return;
+            }
+            snapshotShown_ = true;
+            if (!apps[0].isEmpty()) {
+                setApps(apps[0]);
+            }
+        }
+
+        @Override
+        protected final void onPostExecute(@CheckForNull List<AppInfo> appList) {
+            if (appList != null) {
+                setApps(appList);
+            }
+            setProgressBarIndeterminateVisibility(false);
+            loadTask_ = null;
+        }
+    }
+
+    /**
+     * グリッドに表示中のアプリの候補アイコンを、タップされる前に作成して {@link ShortcutIconCache}
+     * の先行作成用の領域に載せておく処理です。ディスクには書き込みません。
+     * <p>
+     * アプリごとの準備と候補アイコンごとの作成を、 {@link RenderScheduler} に最も低い優先度で要求します。
+     * スクロールやタップで {@link #cancel()} されるか、作成を要求した候補アイコンのバイト数が
+     * {@link ShortcutIconCache#getSpeculativeCapacity()} に達した時点で、それ以上の要求をやめます。
+     * その上限に 1 アプリ分の候補アイコンも収まらない場合は、互いに追い出し合うだけになるため何も作成しません。
+     * キャッシュ済みのアイコンは作成し直しません。
+     * </p>
+     *
+     * @author zaki
+     */
+    private static final class Prerender {
+        private final Context appContext_;
+
+        private final RenderScheduler scheduler_;
+
+        private final List<AppInfo> apps_;
+
+        private final long start_ = System.nanoTime();
+
+        private volatile boolean cancelled_ = false;
+
+        /** 作成を要求した候補アイコンのバイト数の見積もり。 {@code this} で同期してアクセスすること。 */
+        private int reservedBytes_ = 0;
+
+        /** 取り消していない要求。 {@code this} で同期してアクセスすること。 */
+        private final List<RenderScheduler.Ticket> tickets_ = new ArrayList<RenderScheduler.Ticket>();
+
+        /** 中間画像を返却していないセッション。 {@code this} で同期してアクセスすること。 */
+        private final List<RenderGraph.Session> sessions_ = new ArrayList<RenderGraph.Session>();
+
+        Prerender(Context appContext, RenderScheduler scheduler, List<AppInfo> apps) {
+            super();
+            appContext_ = appContext;
+            scheduler_ = scheduler;
+            apps_ = apps;
+        }
+
+        /**
+         * 表示中のアプリごとに、準備を要求します。
+         */
+        void start() {
+            final int iconSize = IconSizeResolver.getLauncherIconSize(appContext_);
+            final int appBytes = ICON_STYLES.length * iconSize * iconSize * 4;
+            if (ShortcutIconCache.getInstance(appContext_).getSpeculativeCapacity() < appBytes) {
+                Metrics.getInstance().record(Stage.PRERENDER, start_, Outcome.BUDGET);
+                cancelled_ = true;
+                return;
+            }
+            for (final AppInfo app : apps_) {
+                track(scheduler_.submit("prerender:" + app.getPackageName() + '/'
+                        + app.getActivityFqcn(), Priority.SPECULATIVE, new Callable<Bitmap>() {
+                    @CheckForNull
+                    @Override
+                    public Bitmap call() {
+                        prepare(app);
+                        return null;
+                    }
+                }, null));
+            }
+        }
+
+        /**
+         * {@link RenderScheduler} のワーカースレッドで、オリジナルアイコンを取得し、キャッシュにない候補アイコンの作成を要求します。
+         * アプリのセッションは、要求した作成がすべて終わった時点で返却します。
+         */
+        private void prepare(final AppInfo app) {
+            if (cancelled_) {
+                return;
+            }
+            final Bitmap originalIcon = loadOriginalIcon(appContext_, app);
+            if (originalIcon == null) {
+                return;
+            }
+            final String stamp = ShortcutIconCache.getVersionStamp(
+                    appContext_.getPackageManager(), app.getPackageName());
+            final int iconSize = IconSizeResolver.getLauncherIconSize(appContext_);
+            final ShortcutIconCache cache = ShortcutIconCache.getInstance(appContext_);
+            final int budgetBytes = cache.getSpeculativeCapacity();
+            final int iconBytes = originalIcon.getWidth() * originalIcon.getHeight() * 4;
+            final RenderGraph.Session session = STYLE_GRAPH.newSession(originalIcon);
+            synchronized (this) {
+                if (cancelled_) {
+                    return;
+                }
+                // 以降に中止された場合は cancel() が返却する。
+                sessions_.add(session);
+            }
+            // 要求した作成の数 + この準備の分。 0 になった時点でセッションを返却する。
+            final AtomicInteger pending = new AtomicInteger(1);
+            try {
+                for (final ShortcutIconCreator builder : createBuilders(session)) {
+                    final ShortcutIconCache.Key key = new ShortcutIconCache.Key(
+                            app.getPackageName(), app.getActivityFqcn(), stamp,
+                            builder.getStyleId(), originalIcon.getWidth());
+                    if (cache.contains(key)) {
+                        continue;
+                    }
+                    synchronized (this) {
+                        if (cancelled_) {
+                            return;
+                        }
+                        if (budgetBytes <= reservedBytes_) {
+                            Metrics.getInstance().record(Stage.PRERENDER, start_, Outcome.BUDGET);
+                            cancelled_ = true;
+                            return;
+                        }
+                        reservedBytes_ += iconBytes;
+                    }
+                    pending.incrementAndGet();
+                    // タップされた場合は同じキーの要求が合流するため、ここで要求した作成は途中で打ち切らない。
+                    track(scheduler_.submit(candidateKey(app, builder.getStyleId(), iconSize),
+                            Priority.SPECULATIVE, new Callable<Bitmap>() {
+                                @Override
+                                public Bitmap call() {
+                                    try {
+                                        final long start = System.nanoTime();
+                                        final Bitmap icon = renderCandidate(appContext_, app,
+                                                stamp, originalIcon, builder, true);
+                                        Metrics.getInstance().record(Stage.PRERENDER, start,
+                                                Outcome.OK);
+                                        return icon;
+                                    } finally {
+                                        finishSession(session, pending);
+                                    }
+                                }
+                            }, null));
+                }
+            } finally {
+                finishSession(session, pending);
+            }
+        }
+
+        /**
+         * セッションを使う処理が 1 つ終わったことを記録し、すべて終わっていればセッションを返却します。
+         */
+        private void finishSession(RenderGraph.Session session, AtomicInteger pending) {
+            if (pending.decrementAndGet() > 0) {
+                return;
+            }
+            synchronized (this) {
+                sessions_.remove(session);
+            }
+            session.release();
+        }
+
+        private synchronized void track(RenderScheduler.Ticket ticket) {
+            if (cancelled_) {
+                ticket.cancel();
+                return;
+            }
+            tickets_.add(ticket);
+        }
+
+        /**
+         * 先行作成を中止します。実行待ちの要求を取り消し、セッションを返却します。作成中のアイコンは、完成してキャッシュに載ります。
+         */
+        synchronized void cancel() {
+            if (!cancelled_) {
+                Metrics.getInstance().record(Stage.PRERENDER, start_, Outcome.CANCELLED);
+            }
+            cancelled_ = true;
+            for (RenderScheduler.Ticket ticket : tickets_) {
+                ticket.cancel();
+            }
+            tickets_.clear();
+            // 取り消した要求はセッションの返却に至らないため、ここで返却する。作成中のものは完了後に返却される。
+            for (RenderGraph.Session session : sessions_) {
+                session.release();
+            }
+            sessions_.clear();
+        }
+    }
+
+    /**
+     * 1 回のタップで作成する候補アイコン群の作成処理をまとめて管理するクラスです。
+     * <p>
+     * {@link #cancel()} 以降は、未着手の作成処理は実行されず、完了済みの結果も反映されません。
+     * 対象アプリのオリジナルアイコンとその {@link RenderGraph.Session} は、最初に必要になったワーカースレッドで用意し、
+     * {@link #cancel()} で返却します。
+     * {@link #onRendered(Bitmap)}, {@link #onFailed()} と {@link #cancel()} は UI スレッドから呼び出すこと。
+     * </p>
+     *
+     * @author zaki
+     */
+    private static final class RenderBatch {
+
+        private final List<RenderScheduler.Ticket> tickets_;
+
+        private final long start_ = System.nanoTime();
+
+        private volatile boolean cancelled_ = false;
+
+        private int remaining_;
+
+        /** 作成に失敗した候補アイコンの数。 */
+        private int failed_ = 0;
+
+        /** 反映済みの候補アイコン。 */
+        private final List<Bitmap> rendered_;
+
+        /** ユーザが選択した候補アイコン。 */
+        @CheckForNull
+        private Bitmap chosen_ = null;
+
+        /**
+         * パッケージマネージャへの問い合わせを 1 回にするためのロック。 UI スレッドが待たされないよう、
+         * {@link #cancel()} が使う {@code this} とは別にする。
+         */
+        private final Object loadLock_ = new Object();
+
+        /** 対象アプリのバージョン。最初に必要になった時点で取得する。 {@link #loadLock_} で同期してアクセスすること。 */
+        @CheckForNull
+        private String versionStamp_ = null;
+
+        /**
+         * 対象アプリのオリジナルアイコンのセッション。最初に必要になった時点で作成する。 {@code this} で同期してアクセスすること。
+         */
+        @CheckForNull
+        private RenderGraph.Session session_ = null;
+
+        /**
+         * @param count 作成する候補アイコンの数。
+         */
+        public RenderBatch(int count) {
+            super();
+            tickets_ = new ArrayList<RenderScheduler.Ticket>(count);
+            rendered_ = new ArrayList<Bitmap>(count);
+            remaining_ = count;
+        }
+
+        /**
+         * {@link RenderScheduler} に要求した作成処理を登録します。中止済みであれば、その場で取り消します。
+         *
+         * @param ticket 作成処理の要求。
+         */
+        public void add(RenderScheduler.Ticket ticket) {
+            if (cancelled_) {
+                ticket.cancel();
+                return;
+            }
+            tickets_.add(ticket);
+        }
+
+        /**
+         * 候補アイコンが 1 つ反映されたことを通知します。すべて完了したら所要時間を {@link Metrics} に記録します。
+         *
+         * @param candidate 反映された候補アイコン。
+         */
+        public void onRendered(Bitmap candidate) {
+            rendered_.add(candidate);
+            onFinished();
+        }
+
+        /**
+         * 候補アイコンが 1 つ作成に失敗したことを通知します。すべて完了したら所要時間を {@link Metrics} に記録します。
+         */
+        public void onFailed() {
+            failed_++;
+            onFinished();
+        }
+
+        private void onFinished() {
+            remaining_--;
+            if (remaining_ == 0) {
+                Metrics.getInstance().record(Stage.ICON_RENDER, start_,
+                        (failed_ == 0) ? Outcome.OK : Outcome.FAILED);
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, LayerCache.getInstance() + ", " + BitmapPool.getInstance() + "\n"
+                            + Metrics.getInstance());
+                }
+            }
+        }
+
+        /**
+         * ユーザが選択した候補アイコンを記録します。選択されたアイコンは {@link #cancel()} の戻り値に含まれません。
+         *
+         * @param candidate 選択された候補アイコン。
+         */
+        public void setChosen(Bitmap candidate) {
+            chosen_ = candidate;
         }
 
         /**
-         * アプリケーションの FQCN を返します。
+         * 対象アプリのバージョンを返します。パッケージマネージャへの問い合わせはバッチごとに 1 回だけ行います。
          *
-         * @return FQCN
+         * @param appContext アプリケーションコンテキスト。
+         * @param appInfo 対象アプリ情報。
+         * @return {@link ShortcutIconCache#getVersionStamp} の戻り値。
+         */
+        public String getVersionStamp(Context appContext, AppInfo appInfo) {
+            synchronized (loadLock_) {
+                String stamp = versionStamp_;
+                if (stamp == null) {
+                    stamp = ShortcutIconCache.getVersionStamp(appContext.getPackageManager(),
+                            appInfo.getPackageName());
+                    versionStamp_ = stamp;
+                }
+                return stamp;
+            }
+        }
+
+        /**
+         * 対象アプリのオリジナルアイコンから候補アイコンを作成するセッションを返します。オリジナルアイコンの取得は
+         * バッチごとに 1 回だけ行います。ワーカースレッドから呼び出すこと。
+         *
+         * @param appContext アプリケーションコンテキスト。
+         * @param appInfo 対象アプリ情報。
+         * @return セッション。
+         * @throws IllegalStateException オリジナルアイコンが {@link Bitmap} のアイコンでない場合。
+         */
+        public RenderGraph.Session getSession(Context appContext, AppInfo appInfo) {
+            synchronized (loadLock_) {
+                synchronized (this) {
+                    final RenderGraph.Session session = session_;
+                    if (session != null) {
+                        return session;
+                    }
+                }
+                final Bitmap originalIcon = loadOriginalIcon(appContext, appInfo);
+                if (originalIcon == null) {
+                    throw new IllegalStateException("unsupported icon: " + appInfo);
+                }
+                final RenderGraph.Session session = STYLE_GRAPH.newSession(originalIcon);
+                synchronized (this) {
+                    session_ = session;
+                    if (cancelled_) {
+                        // 中止後に合流した作成のためのセッション。中間画像は作成の完了時に返却される。
+                        session.release();
+                    }
+                }
+                return session;
+            }
+        }
+
+        /**
+         * 未完了の作成処理を中止します。
+         *
+         * @return 反映済みの候補アイコンのうち、選択されなかったもの。
+         */
+        public List<Bitmap> cancel() {
+            if (!cancelled_ && remaining_ > 0) {
+                Metrics.getInstance().record(Stage.ICON_RENDER, start_, Outcome.CANCELLED);
+            }
+            cancelled_ = true;
+            for (RenderScheduler.Ticket ticket : tickets_) {
+                ticket.cancel();
+            }
+            tickets_.clear();
+            synchronized (this) {
+                final RenderGraph.Session session = session_;
+                if (session != null) {
+                    session.release();
+                }
+            }
+
+            final List<Bitmap> unused = new ArrayList<Bitmap>(rendered_.size());
+            for (Bitmap candidate : rendered_) {
+                if (candidate != chosen_) {
+                    unused.add(candidate);
+                }
+            }
+            rendered_.clear();
+            return unused;
+        }
+
+        public boolean isCancelled() {
+            return cancelled_;
+        }
+    }
+
+    /**
+     * 一括作成モードで選択した複数のアプリのショートカットを作成し、ホームアプリに追加する処理です。
+     * <p>
+     * アプリごとの作成を {@link RenderScheduler} に最も高い優先度でまとめて要求し、ワーカースレッドで並行して
+     * 作成・追加します。スタイル間で共通の中間画像は {@link #STYLE_GRAPH} がすべてのアプリで共有し、
+     * キャッシュ済みのアイコンは作成し直しません。各アプリの完了と全体の完了を、 UI スレッドで
+     * {@link Listener} に通知します。 {@link #cancel()} 以降は通知しません。
+     * </p>
+     * <p>
+     * ホームアプリはブロードキャストの処理結果を返さないため、ブロードキャストを送信できた時点で追加できたものとします。
+     * ブロードキャストに格納するアイコンは {@link #MAX_BATCH_INLINE_ICON_SIZE} に縮小し、送信はワーカースレッド間で直列化します。
+     * </p>
+     *
+     * @author zaki
+     */
+    private static final class BatchInstall {
+
+        /**
+         * 一括作成の進捗を受け取るリスナです。 UI スレッドから呼び出されます。
          */
-        public String getActivityFqcn() {
-            return activityFqcn_;
+        interface Listener {
+            /**
+             * アプリ 1 つ分の作成が、成功・失敗にかかわらず完了した際に呼び出されます。
+             *
+             * @param item 完了したアプリ。
+             * @param finished 完了したアプリの数。
+             * @param total 作成するアプリの数。
+             */
+            void onItemFinished(Item item, int finished, int total);
+
+            /**
+             * すべてのアプリの作成が完了した際に呼び出されます。
+             *
+             * @param failures 作成に失敗したアプリ。選択された順に並びます。
+             */
+            void onFinished(List<Item> failures);
         }
 
         /**
-         * アプリケーションのパッケージ名を返します。
+         * 一括作成するアプリ 1 つ分の、アプリとスタイルの組です。
+         */
+        static final class Item {
+            private final AppInfo app_;
+
+            private final IconStyle style_;
+
+            /**
+             * 失敗した理由。ワーカースレッドで設定し、 UI スレッドへは {@link Handler} 経由で渡す。
+             */
+            @CheckForNull
+            private String failure_ = null;
+
+            Item(AppInfo app, IconStyle style) {
+                app_ = app;
+                style_ = style;
+            }
+
+            AppInfo getApp() {
+                return app_;
+            }
+
+            /**
+             * @return 失敗した理由。成功した場合や、未完了の場合は {@code null}。
+             */
+            @CheckForNull
+            String getFailure() {
+                return failure_;
+            }
+        }
+
+        private final Context appContext_;
+
+        private final RenderScheduler scheduler_;
+
+        private final List<Item> items_;
+
+        private final Listener listener_;
+
+        /** 完了を UI スレッドへ戻すためのハンドラ。 */
+        private final Handler handler_ = new Handler();
+
+        private final long start_ = System.nanoTime();
+
+        private volatile boolean cancelled_ = false;
+
+        /** 取り消していない要求。 {@code this} で同期してアクセスすること。 */
+        private final List<RenderScheduler.Ticket> tickets_;
+
+        /** 完了したアプリの数。 UI スレッドからのみアクセスすること。 */
+        private int finished_ = 0;
+
+        /** 作成に失敗したアプリ。 UI スレッドからのみアクセスすること。 */
+        private final List<Item> failures_ = new ArrayList<Item>();
+
+        /**
+         * UI スレッドで構築すること。
          *
-         * @return パッケージ名。
+         * @param appContext アプリケーションコンテキスト。
+         * @param scheduler 作成を実行するスケジューラ。
+         * @param items 作成するアプリ。以降呼び出し側で変更しないこと。
+         * @param listener 進捗を受け取るリスナ。
+         */
+        BatchInstall(Context appContext, RenderScheduler scheduler, List<Item> items,
+                Listener listener) {
+            super();
+            appContext_ = appContext;
+            scheduler_ = scheduler;
+            items_ = items;
+            listener_ = listener;
+            tickets_ = new ArrayList<RenderScheduler.Ticket>(items.size());
+        }
+
+        /**
+         * すべてのアプリの作成を要求します。
+         */
+        synchronized void start() {
+            for (final Item item : items_) {
+                tickets_.add(scheduler_.submit("install:" + appKey(item.app_) + '/'
+                        + item.style_.getId(), Priority.USER, new Callable<Bitmap>() {
+                    @CheckForNull
+                    @Override
+                    public Bitmap call() {
+                        install(item);
+                        return null;
+                    }
+                }, null));
+            }
+        }
+
+        /**
+         * {@link RenderScheduler} のワーカースレッドで、アプリ 1 つ分のショートカットを作成して追加します。
+         */
+        private void install(final Item item) {
+            if (cancelled_) {
+                return;
+            }
+            final long start = System.nanoTime();
+            final AppInfo app = item.app_;
+            boolean installed = false;
+            try {
+                final Bitmap originalIcon = loadOriginalIcon(appContext_, app);
+                if (originalIcon == null) {
+                    throw new IllegalStateException("unsupported icon: " + app);
+                }
+                final String stamp = ShortcutIconCache.getVersionStamp(
+                        appContext_.getPackageManager(), app.getPackageName());
+                final RenderGraph.Session session = STYLE_GRAPH.newSession(originalIcon);
+                final ShortcutIconCreator builder = session.creatorFor(item.style_);
+                final Bitmap shortcutIcon;
+                try {
+                    shortcutIcon = renderCandidate(appContext_, app, stamp, originalIcon, builder,
+                            false);
+                } finally {
+                    session.release();
+                }
+
+                final Intent install = buildShortcutIntent(appContext_, app, shortcutIcon,
+                        Math.min(MAX_BATCH_INLINE_ICON_SIZE,
+                                IconSizeResolver.getLauncherIconSize(appContext_)));
+                install.setAction(ACTION_INSTALL_SHORTCUT);
+                install.putExtra(EXTRA_SHORTCUT_DUPLICATE, false);
+                // ワーカースレッド間で送信を直列化し、アイコンを含むトランザクションが同時に複数発生しないようにする。
+                synchronized (BatchInstall.class) {
+                    appContext_.sendBroadcast(install);
+                }
+                Metrics.getInstance().record(Stage.BATCH_INSTALL, start, Outcome.OK);
+                installed = true;
+            } catch (RuntimeException e) {
+                fail(item, start, e);
+            } catch (OutOfMemoryError e) {
+                // 大きなアイコンの作成でメモリが足りなかった。このアプリだけ失敗とし、残りは続ける。
+                fail(item, start, e);
+            } finally {
+                // 他の Error で抜ける場合も、失敗として完了を通知しないと一括作成が終わらない。
+                if (!installed && item.failure_ == null) {
+                    item.failure_ = "unexpected error";
+                }
+                handler_.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onItemFinished(item);
+                    }
+                });
+            }
+        }
+
+        private static void fail(Item item, long start, Throwable e) {
+            Log.w(TAG, "failed to install shortcut: " + item.app_, e);
+            final String message = e.getMessage();
+            item.failure_ = (message == null) ? e.getClass().getSimpleName() : message;
+            Metrics.getInstance().record(Stage.BATCH_INSTALL, start, Outcome.FAILED);
+        }
+
+        /**
+         * UI スレッドで、アプリ 1 つ分の完了をリスナに通知します。
          */
-        public String getPackageName() {
-            return packageName_;
+        private void onItemFinished(Item item) {
+            if (cancelled_) {
+                return;
+            }
+            finished_++;
+            if (item.failure_ != null) {
+                failures_.add(item);
+            }
+            listener_.onItemFinished(item, finished_, items_.size());
+            if (finished_ == items_.size()) {
+                synchronized (this) {
+                    tickets_.clear();
+                }
+                listener_.onFinished(new ArrayList<Item>(failures_));
+            }
         }
 
+        /**
+         * 一括作成を中止します。実行待ちの要求を取り消します。作成中のアプリは追加されることがあります。
+         */
+        synchronized void cancel() {
+            if (!cancelled_ && finished_ < items_.size()) {
+                Metrics.getInstance().record(Stage.BATCH_INSTALL, start_, Outcome.CANCELLED);
+            }
+            cancelled_ = true;
+            for (RenderScheduler.Ticket ticket : tickets_) {
+                ticket.cancel();
+            }
+            tickets_.clear();
+        }
     }
 
     /**
@@ -422,9 +1741,25 @@ public final class CreateShortcutActivity extends Activity implements OnItemClic
     public static final class AppsAdapter extends BaseAdapter {
 
         /**
-         * アプリ一覧
+         * 絞り込む前のアプリ一覧。ラベル順に並ぶ。
          */
-        private final List<AppInfo> apps_;
+        private List<AppInfo> allApps_;
+
+        /**
+         * グリッドに表示するアプリ一覧。 {@link #allApps_} を {@link #filter_} で絞り込んだもの。
+         */
+        private List<AppInfo> apps_;
+
+        /**
+         * {@link #allApps_} の検索インデックス。絞り込みが必要になるまで作成しない。
+         */
+        @CheckForNull
+        private AppSearchIndex index_ = null;
+
+        /**
+         * 絞り込みの検索語。空文字列であれば絞り込まない。
+         */
+        private String filter_ = "";
 
         /**
          * グリッドの要素を生成するためのインフレータ。
@@ -436,42 +1771,49 @@ public final class CreateShortcutActivity extends Activity implements OnItemClic
          */
         private final LinearLayout.LayoutParams params_;
 
+        /**
+         * アイコンのサムネイルを読み込むローダ。
+         */
+        private final ThumbnailLoader loader_;
+
+        /**
+         * サムネイルの読み込みが完了するまで表示する、透明なアイコン。
+         */
+        private final Drawable placeholder_ = new ColorDrawable(0);
+
+        /**
+         * サムネイルを読み込めなかった場合に表示する、システムのデフォルトのアイコン。
+         */
+        private final Drawable fallback_;
+
+        /**
+         * 表示範囲の前後を先読みしている要求。キーはアイテムのインデックス。
+         */
+        private final Map<Integer, ThumbnailLoader.Request> prefetches_ =
+                new HashMap<Integer, ThumbnailLoader.Request>();
+
         /**
          * 指定されたアプリ一覧を提供する {@link AppsAdapter} を構築します。
          *
          * @param appContext アプリケーションコンテキスト。 コンストラクタ内でのみ使用し、参照は保持しません。
-         * @param apps 表示するアプリケーションのリスト。
+         * @param apps 表示するアプリケーションのリスト。ラベル順に並んでいること。
          *            渡されたリストは、アダプター内で保持します。以降呼び出し側で変更しないことを前提にしています。
+         * @param index {@code apps} の検索インデックス。なければ {@code null}。
          */
-        public AppsAdapter(Context appContext, List<AppInfo> apps) {
+        public AppsAdapter(Context appContext, List<AppInfo> apps,
+                @CheckForNull AppSearchIndex index) {
+            allApps_ = apps;
             apps_ = apps;
+            index_ = (index != null && index.getApps() == apps) ? index : null;
             inflater_ = (LayoutInflater) appContext
                     .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 
-            // 画面サイズを取得
-            final int iconSize = getIconSize(appContext.getWallpaperDesiredMinimumWidth(),
-                    appContext.getWallpaperDesiredMinimumHeight());
+            final int iconSize = getGridIconSize(appContext);
             params_ = new LinearLayout.LayoutParams(iconSize, iconSize);
-        }
-
-        /**
-         * 画面の大きさから、適切なアイコンのピクセル数を決定します。
-         *
-         * @param wallpaperWidth 画面の幅。
-         * @param wallpaperHeight 画面の高さ。
-         * @return アイコン画像のいっぺんのピクセル数。
-         */
-        private static int getIconSize(int wallpaperWidth, int wallpaperHeight) {
-            for (int config : ICON_SIZE_CONFIG) {
-                final int border = getBorderFromConfig(config);
-                if (wallpaperHeight < border) {
-                    continue;
-                }
-                final int size = getSizeFromConfig(config);
-                return size;
-            }
-            throw new RuntimeException("failed to determine icon size. wallpaperWidth="
-                    + wallpaperWidth + ", wallpaperHeight=" + wallpaperHeight);
+            loader_ = ThumbnailLoader.getInstance(appContext);
+            placeholder_.setBounds(0, 0, iconSize, iconSize);
+            fallback_ = appContext.getPackageManager().getDefaultActivityIcon();
+            fallback_.setBounds(0, 0, iconSize, iconSize);
         }
 
         /**
@@ -489,13 +1831,192 @@ public final class CreateShortcutActivity extends Activity implements OnItemClic
 
             final AppInfo info = getItem(position);
             v.setText(info.getLabel());
-            final Drawable icon = info.getIcon();
-            icon.setBounds(0, 0, params_.width, params_.height);
-            v.setCompoundDrawables(null, icon, null, null);
+
+            Cell cell = (Cell) v.getTag();
+            if (cell == null) {
+                cell = new Cell(v);
+                v.setTag(cell);
+            }
+            cell.bind(info);
 
             return v;
         }
 
+        /**
+         * 表示範囲の前後 {@link #PREFETCH_ITEMS} 個のサムネイルを先読みし、範囲外になった先読みを取り消します。
+         *
+         * @param firstVisible 表示範囲の先頭のインデックス。
+         * @param visibleCount 表示範囲のアイテム数。
+         */
+        public void prefetch(int firstVisible, int visibleCount) {
+            final int from = Math.max(0, firstVisible - PREFETCH_ITEMS);
+            final int to = Math.min(getCount(), firstVisible + visibleCount + PREFETCH_ITEMS);
+
+            final Iterator<Map.Entry<Integer, ThumbnailLoader.Request>> it = prefetches_
+                    .entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<Integer, ThumbnailLoader.Request> entry = it.next();
+                final int index = entry.getKey().intValue();
+                if (index < from || to <= index) {
+                    entry.getValue().cancel();
+                    it.remove();
+                }
+            }
+            for (int i = from; i < to; i++) {
+                final Integer index = Integer.valueOf(i);
+                final ThumbnailLoader.Request current = prefetches_.get(index);
+                if (current != null && !current.isCancelled()) {
+                    continue;
+                }
+                final AppInfo app = apps_.get(i);
+                if (loader_.getCached(app, params_.width) != null) {
+                    continue;
+                }
+                prefetches_.put(index, loader_.load(app, params_.width, null));
+            }
+        }
+
+        /**
+         * アプリ一覧を置き換えます。絞り込み中であれば、新しいアプリ一覧を同じ検索語で絞り込みます。
+         *
+         * @param apps 表示するアプリケーションのリスト。ラベル順に並んでいること。以降呼び出し側で変更しないこと。
+         * @param index {@code apps} の検索インデックス。なければ {@code null}。絞り込みが必要になった時点で作成します。
+         */
+        public void replace(List<AppInfo> apps, @CheckForNull AppSearchIndex index) {
+            allApps_ = apps;
+            index_ = (index != null && index.getApps() == apps) ? index : null;
+            applyFilter();
+        }
+
+        /**
+         * アプリ一覧を、ラベルかパッケージ名に検索語を含むものに絞り込みます。
+         *
+         * @param filter 検索語。空文字列であれば絞り込みを解除します。
+         */
+        public void setFilter(String filter) {
+            if (filter.equals(filter_)) {
+                return;
+            }
+            filter_ = filter;
+            applyFilter();
+        }
+
+        private void applyFilter() {
+            // 先読みはインデックスで管理しているため、一覧が変わったら取り消す。
+            cancelPrefetch();
+            if (filter_.trim().length() == 0) {
+                apps_ = allApps_;
+            } else {
+                AppSearchIndex index = index_;
+                if (index == null) {
+                    // 突き合わせ中に挿入したアプリを含む一覧など、カタログが作成したインデックスがない場合
+                    index = AppSearchIndex.build(allApps_);
+                    index_ = index;
+                }
+                apps_ = index.search(filter_);
+            }
+            notifyDataSetChanged();
+        }
+
+        /**
+         * アプリ一覧に、ラベル順の位置を保ってアプリを挿入します。
+         *
+         * @param chunk 挿入するアプリ。ラベル順に並んでいること。
+         */
+        public void merge(List<AppInfo> chunk) {
+            final List<AppInfo> current = allApps_;
+            final List<AppInfo> merged = new ArrayList<AppInfo>(current.size() + chunk.size());
+            int i = 0;
+            int j = 0;
+            while (i < current.size() && j < chunk.size()) {
+                if (AppCatalog.LABEL_ORDER.compare(chunk.get(j), current.get(i)) < 0) {
+                    merged.add(chunk.get(j++));
+                } else {
+                    merged.add(current.get(i++));
+                }
+            }
+            merged.addAll(current.subList(i, current.size()));
+            merged.addAll(chunk.subList(j, chunk.size()));
+            replace(merged, null);
+        }
+
+        /**
+         * 先読みをすべて取り消します。
+         */
+        public void cancelPrefetch() {
+            for (ThumbnailLoader.Request request : prefetches_.values()) {
+                request.cancel();
+            }
+            prefetches_.clear();
+        }
+
+        /**
+         * グリッドの 1 セルと、そのセルに表示するサムネイルの読み込み要求を結び付けるクラスです。
+         */
+        private final class Cell implements ThumbnailLoader.Callback {
+            private final TextView view_;
+
+            @CheckForNull
+            private AppInfo app_ = null;
+
+            @CheckForNull
+            private ThumbnailLoader.Request request_ = null;
+
+            Cell(TextView view) {
+                view_ = view;
+            }
+
+            /**
+             * セルに表示するアプリを設定します。サムネイルを保持していなければ読み込みを要求し、
+             * セルが再利用された場合は前のアプリの読み込みを取り消します。
+             */
+            void bind(AppInfo app) {
+                if (app == app_) {
+                    return;
+                }
+                final ThumbnailLoader.Request previous = request_;
+                if (previous != null) {
+                    previous.cancel();
+                }
+                request_ = null;
+                app_ = app;
+
+                final Bitmap cached = loader_.getCached(app, params_.width);
+                if (cached != null) {
+                    setThumbnail(cached);
+                    return;
+                }
+                view_.setCompoundDrawables(null, placeholder_, null, null);
+                request_ = loader_.load(app, params_.width, this);
+            }
+
+            @Override
+            public void onThumbnailLoaded(AppInfo app, Bitmap thumbnail) {
+                if (app != app_) {
+                    return;
+                }
+                request_ = null;
+                setThumbnail(thumbnail);
+            }
+
+            @Override
+            public void onThumbnailFailed(AppInfo app) {
+                if (app != app_) {
+                    return;
+                }
+                request_ = null;
+                // 次に同じアプリで bind() された際に読み込み直すよう、アプリとの結び付けを外しておく。
+                app_ = null;
+                view_.setCompoundDrawables(null, fallback_, null, null);
+            }
+
+            private void setThumbnail(Bitmap thumbnail) {
+                final Drawable icon = new BitmapDrawable(thumbnail);
+                icon.setBounds(0, 0, params_.width, params_.height);
+                view_.setCompoundDrawables(null, icon, null, null);
+            }
+        }
+
         /**
          * アダプタが保持するアプリの数を返します。
          */
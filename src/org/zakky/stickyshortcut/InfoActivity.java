@@ -22,19 +22,31 @@ import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
 import edu.umd.cs.findbugs.annotations.NonNull;
 
 import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.Intent;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.webkit.WebView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 /**
  * 使用方法を表示するアクティビティです。
+ * <p>
+ * メニューから、 {@link Metrics} の集計結果をテキストとして他のアプリ(メールなど)で共有できます。
+ * 以前のプロセスで保存された記録も含みます。
+ * </p>
  *
  * @author zaki
  */
 @DefaultAnnotation(NonNull.class)
 public class InfoActivity extends Activity {
 
+    private static final int MENU_SHARE_METRICS = Menu.FIRST;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -62,6 +74,60 @@ public class InfoActivity extends Activity {
         super.onResume();
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        super.onCreateOptionsMenu(menu);
+        menu.add(Menu.NONE, MENU_SHARE_METRICS, Menu.NONE, R.string.menu_share_metrics);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+        case MENU_SHARE_METRICS:
+            shareMetrics();
+            return true;
+        default:
+            return super.onOptionsItemSelected(item);
+        }
+    }
+
+    /**
+     * {@link Metrics} の集計結果を、テキストを受け取れるアプリを選択して送ります。
+     * 保存済みの記録の読み込みはバックグラウンドで行います。
+     */
+    private void shareMetrics() {
+        new AsyncTask<Void, Void, String>() {
+            @Override
+            protected String doInBackground(Void... params) {
+                final Metrics metrics = Metrics.getInstance();
+                metrics.load(InfoActivity.this);
+                return metrics.toString();
+            }
+
+            @Override
+            protected void onPostExecute(String report) {
+                if (isFinishing()) {
+                    return;
+                }
+                sendMetrics(report);
+            }
+        }.execute();
+    }
+
+    private void sendMetrics(String report) {
+        final String subject = getString(R.string.app_name) + " " + getAppVersion() + " metrics";
+        final Intent send = new Intent(Intent.ACTION_SEND);
+        send.setType("text/plain");
+        send.putExtra(Intent.EXTRA_SUBJECT, subject);
+        send.putExtra(Intent.EXTRA_TEXT, subject + "\n\n" + report);
+        try {
+            startActivity(Intent.createChooser(send, getString(R.string.menu_share_metrics)));
+        } catch (ActivityNotFoundException e) {
+            Toast.makeText(this, R.string.share_metrics_failed, Toast.LENGTH_SHORT).show();
+        }
+    }
+
     /**
      * アプリケーションの表示用バージョン番号文字列を返します。
      *
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * スティッキーショートカットの起動対象が起動可能であることを、プロセス内に記憶しておくキャッシュです。
+ * <p>
+ * 一度パッケージマネージャに問い合わせて起動可能と判明したコンポーネントは、
+ * {@link PackageChangeReceiver} がそのパッケージの変更を通知するまで問い合わせずに起動可能として扱います。
+ * 起動不可能という結果はマーケットを開く場合にしか使わないため、記憶しません。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class LaunchTargetCache {
+
+    private static final LaunchTargetCache INSTANCE = new LaunchTargetCache();
+
+    /**
+     * プロセス全体で共有される {@link LaunchTargetCache} を返します。
+     *
+     * @return {@link LaunchTargetCache} のインスタンス。
+     */
+    public static LaunchTargetCache getInstance() {
+        return INSTANCE;
+    }
+
+    /** 起動可能と判明したコンポーネント。 {@code this} で同期してアクセスすること。 */
+    private final Set<String> resolved_ = new HashSet<String>();
+
+    private int hitCount_ = 0;
+
+    private int missCount_ = 0;
+
+    private LaunchTargetCache() {
+        super();
+    }
+
+    /**
+     * 指定されたコンポーネントが起動可能であると記憶しているかどうかを返します。
+     * パッケージマネージャへの問い合わせは行いません。
+     *
+     * @param packageName パッケージ名。
+     * @param activityFqcn アクティビティの FQCN。
+     * @return 記憶していれば {@code true}。
+     */
+    public synchronized boolean isKnownInstalled(String packageName, String activityFqcn) {
+        if (resolved_.contains(keyOf(packageName, activityFqcn))) {
+            hitCount_++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 起動用のインテントを受け取るアクティビティが存在するかどうかを、パッケージマネージャに問い合わせます。
+     * 存在すれば、その結果を記憶します。
+     *
+     * @param pm パッケージマネージャ。
+     * @param launchIntent 起動用のインテント。 {@link Intent#setClassName(String, String)} で
+     *            起動対象を指定していること。
+     * @param packageName 起動対象のパッケージ名。
+     * @param activityFqcn 起動対象のアクティビティの FQCN。
+     * @return 存在すれば {@code true}。
+     */
+    public boolean resolve(PackageManager pm, Intent launchIntent, String packageName,
+            String activityFqcn) {
+        final List<ResolveInfo> resolveInfo = pm.queryIntentActivities(launchIntent,
+                PackageManager.MATCH_DEFAULT_ONLY);
+        final boolean installed = !resolveInfo.isEmpty();
+        synchronized (this) {
+            missCount_++;
+            if (installed) {
+                resolved_.add(keyOf(packageName, activityFqcn));
+            }
+        }
+        return installed;
+    }
+
+    /**
+     * 指定されたパッケージについて記憶している内容を破棄します。
+     *
+     * @param packageName パッケージ名。
+     */
+    public synchronized void invalidatePackage(String packageName) {
+        final String prefix = packageName + '/';
+        final Iterator<String> it = resolved_.iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LaunchTargetCache[size=" + resolved_.size() + ", hit=" + hitCount_ + ", miss="
+                + missCount_ + "]";
+    }
+
+    private static String keyOf(String packageName, String activityFqcn) {
+        return packageName + '/' + activityFqcn;
+    }
+}
@@ -16,7 +16,8 @@
 
 package org.zakky.stickyshortcut;
 
-import java.util.List;
+import org.zakky.stickyshortcut.Metrics.Outcome;
+import org.zakky.stickyshortcut.Metrics.Stage;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
@@ -25,8 +26,6 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 import android.app.Activity;
 import android.content.ActivityNotFoundException;
 import android.content.Intent;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
@@ -34,6 +33,11 @@ import android.widget.Toast;
 
 /**
  * 起動対象を実際に呼び出すアクティビティです。 スティッキーショートカットから呼び出されることを想定しています。
+ * <p>
+ * 起動対象が起動可能であることを {@link LaunchTargetCache} が記憶していれば、レイアウトの構築も
+ * パッケージマネージャへの問い合わせも行わずに、 {@link #onCreate(Bundle)} の中で起動対象を呼び出して終了します。
+ * 記憶が古く呼び出しに失敗した場合は、通常どおり画面を構築し、 {@link #onResume()} で問い合わせからやり直します。
+ * </p>
  *
  * @author zaki
  */
@@ -54,6 +58,12 @@ public class LauncherActivity extends Activity {
     /** 起動対象アプリのラベルのためのキー */
     public static final String EXTRA_TARGET_LABEL = "EXTRA_TARGET_LABEL";
 
+    /**
+     * {@link #onCreate(Bundle)} の開始から起動対象の呼び出しまでにかける時間の目安(ミリ秒)。
+     * 超えた場合は警告を記録する。
+     */
+    private static final long LAUNCH_BUDGET_MILLIS = 50L;
+
     /** 起動対象アプリのパッケージ名 */
     @CheckForNull
     private String targetPackage_;
@@ -66,8 +76,12 @@ public class LauncherActivity extends Activity {
     @CheckForNull
     private String targetLabel_;
 
+    /** {@link #onCreate(Bundle)} の開始時刻。 {@link System#nanoTime()} の値。 */
+    private long createdAt_;
+
     @Override
     public void onCreate(@CheckForNull Bundle savedInstanceState) {
+        createdAt_ = System.nanoTime();
         super.onCreate(savedInstanceState);
 
         @CheckForNull
@@ -76,6 +90,18 @@ public class LauncherActivity extends Activity {
         targetPackage_ = getTargetPackage(intent);
         targetFqcn_ = getTargetFqcn(intent);
         targetLabel_ = getTargetLabel(intent);
+
+        final String targetPackage = targetPackage_;
+        final String targetFqcn = targetFqcn_;
+        if (targetPackage != null && targetFqcn != null
+                && LaunchTargetCache.getInstance().isKnownInstalled(targetPackage, targetFqcn)) {
+            // 起動可能であることが分かっているため、画面を構築せずに起動対象を呼び出す。
+            if (launch(buildLaunchIntent(), true)) {
+                finish();
+                return;
+            }
+            // 記憶が古かった。問い合わせからやり直すため、通常の起動と同じく onResume() に進む。
+        }
         setContentView(R.layout.launcher);
     }
 
@@ -83,6 +109,10 @@ public class LauncherActivity extends Activity {
     protected void onResume() {
         super.onResume();
 
+        if (isFinishing()) {
+            // onCreate() で起動済み
+            return;
+        }
         final String targetPackage = targetPackage_;
         if (targetPackage == null) {
             // 起動対象が不明なので終了
@@ -99,25 +129,68 @@ public class LauncherActivity extends Activity {
             Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
 
             final Intent istallIntent = buildInstallIntent(targetPackage);
+            Outcome outcome = Outcome.MARKET_FALLBACK;
             try {
                 startActivity(istallIntent);
             } catch (ActivityNotFoundException e) {
                 final Toast toast = Toast.makeText(this, R.string.failed_to_open_market,
                         Toast.LENGTH_LONG);
                 toast.show();
+                outcome = Outcome.MARKET_FAILED;
             }
+            Metrics.getInstance().record(Stage.LAUNCH, createdAt_, outcome);
             finish();
             return;
         }
 
-        // 起動対象アプリを実際に呼び出す。
+        launch(launchIntent, false);
+        finish();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // onCreate() で起動して終了した場合は onPause() が呼ばれないため、ここで保存する。
+        Metrics.getInstance().saveInBackground(this);
+    }
+
+    /**
+     * 起動対象アプリを実際に呼び出し、呼び出しまでの所要時間を {@link Metrics} に記録します。
+     * <p>
+     * {@link LaunchTargetCache} の記憶による呼び出しに失敗した場合は、記憶を破棄して {@code false} を返します。
+     * 呼び出し元は問い合わせからやり直すため、この場合は {@link Metrics} に記録しません。
+     * </p>
+     *
+     * @param launchIntent 起動用のインテント。
+     * @param warm {@link LaunchTargetCache} の記憶により問い合わせを省略した場合は {@code true}。
+     * @return 呼び出せた場合は {@code true}。
+     */
+    private boolean launch(Intent launchIntent, boolean warm) {
         try {
             startActivity(launchIntent);
         } catch (ActivityNotFoundException e) {
-            Log.e(TAG, "failed to start activity. package=" + targetPackage + ", fqcn="
+            Log.e(TAG, "failed to start activity. package=" + targetPackage_ + ", fqcn="
                     + targetFqcn_ + ", label=" + targetLabel_, e);
+            // 記憶が古かった。以降は問い合わせ直す。
+            final String targetPackage = targetPackage_;
+            if (targetPackage != null) {
+                LaunchTargetCache.getInstance().invalidatePackage(targetPackage);
+            }
+            if (!warm) {
+                Metrics.getInstance().record(Stage.LAUNCH, createdAt_, Outcome.LAUNCH_FAILED);
+            }
+            return false;
         }
-        finish();
+        Metrics.getInstance().record(Stage.LAUNCH, createdAt_,
+                warm ? Outcome.CACHE_HIT : Outcome.CACHE_MISS);
+        final long elapsed = (System.nanoTime() - createdAt_) / 1000000L;
+        if (LAUNCH_BUDGET_MILLIS < elapsed) {
+            Log.w(TAG, (warm ? "warm" : "cold") + " launch took " + elapsed + "ms (budget "
+                    + LAUNCH_BUDGET_MILLIS + "ms): " + targetPackage_);
+        } else if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, (warm ? "warm" : "cold") + " launch took " + elapsed + "ms");
+        }
+        return true;
     }
 
     /**
@@ -197,6 +270,7 @@ public class LauncherActivity extends Activity {
 
     /**
      * 指定されたインテントを送った際に、レシーバが存在するかどうかを返します。
+     * 存在した場合は {@link LaunchTargetCache} に記憶し、次回からの問い合わせを省略します。
      *
      * @param intent インテント。
      * @return レシーバが存在すれば {@code true}、存在しなければ {@code false} を返します。
@@ -205,12 +279,17 @@ public class LauncherActivity extends Activity {
         if (intent == null) {
             return false;
         }
+        final String targetPackage = targetPackage_;
+        final String targetFqcn = targetFqcn_;
+        if (targetPackage == null || targetFqcn == null) {
+            return false;
+        }
 
-        final PackageManager pm = getPackageManager();
-        final List<ResolveInfo> resolveInfo = pm.queryIntentActivities(intent,
-                PackageManager.MATCH_DEFAULT_ONLY);
-
-        final boolean result = (!resolveInfo.isEmpty());
-        return result;
+        final long start = System.nanoTime();
+        final boolean installed = LaunchTargetCache.getInstance().resolve(getPackageManager(),
+                intent, targetPackage, targetFqcn);
+        Metrics.getInstance().record(Stage.INSTALLED_CHECK, start,
+                installed ? Outcome.INSTALLED : Outcome.NOT_INSTALLED);
+        return installed;
     }
 }
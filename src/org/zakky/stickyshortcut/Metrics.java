@@ -0,0 +1,467 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * 処理ごとの所要時間と結果を記録するクラスです。
+ * <p>
+ * 処理の種類({@link Stage})ごとに直近 {@link #RING_SIZE} 回分の所要時間と結果({@link Outcome})を
+ * リングバッファに保持します。 {@link #record(Stage, long, Outcome)} は事前に確保した配列に書き込むだけで、
+ * オブジェクトを生成しません。集計は {@link #dump(PrintWriter)} で、処理の種類ごとの回数、
+ * 結果ごとの回数、所要時間の p50/p95/p99 を出力します。
+ * </p>
+ * <p>
+ * 記録はプロセス内のメモリに保持し、 {@link #saveInBackground(Context)} でキャッシュディレクトリのファイルに保存します。
+ * ショートカットからの起動と集計結果の共有は別のプロセスで行われることが多いため、記録を行うアクティビティは
+ * {@code onPause()} で保存してください。保存済みの記録は {@link #load(Context)} で、現在のプロセスの記録の前に加えます。
+ * {@link InfoActivity} のメニューから、集計結果をテキストとして他のアプリ(メールなど)で共有できます。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class Metrics {
+    private static final String TAG = Metrics.class.getSimpleName();
+
+    /** 記録を保存するファイル名。 */
+    private static final String FILE_NAME = "metrics.bin";
+
+    /** 保存するファイルの形式。 {@link Outcome} の並びを変更した場合も上げること。 */
+    private static final int FORMAT_VERSION = 1;
+
+    /** 処理の種類ごとに保持する記録の数。 */
+    private static final int RING_SIZE = 128;
+
+    /**
+     * 計測する処理の種類です。
+     */
+    public enum Stage {
+        /**
+         * スティッキーショートカットのタップ( {@link LauncherActivity} の開始)から、起動対象の呼び出しまで。
+         */
+        LAUNCH,
+        /**
+         * 起動対象がインストールされているかどうかの、パッケージマネージャへの問い合わせ。結果は
+         * {@link Outcome#INSTALLED} か {@link Outcome#NOT_INSTALLED}。
+         */
+        INSTALLED_CHECK,
+        /** アプリ一覧のスナップショットの読み込み。スナップショットがあれば {@link Outcome#CACHE_HIT}。 */
+        CATALOG_LOAD,
+        /** アプリ一覧とパッケージマネージャの突き合わせ。差分がなければ {@link Outcome#CACHE_HIT}。 */
+        CATALOG_RECONCILE,
+        /** 1 回のタップでの、すべての候補アイコンの作成。 */
+        ICON_RENDER,
+        /**
+         * 先行作成での候補アイコン 1 つの作成。打ち切った場合は、先行作成の開始からの時間を
+         * {@link Outcome#CANCELLED} か {@link Outcome#BUDGET} として記録する。
+         */
+        PRERENDER,
+        /**
+         * 一括作成での、ショートカット 1 つの作成とホームアプリへの追加。中止した場合は、一括作成の開始からの時間を
+         * {@link Outcome#CANCELLED} として記録する。
+         */
+        BATCH_INSTALL,
+    }
+
+    /**
+     * 処理の結果です。
+     */
+    public enum Outcome {
+        /** 特記事項なし。 */
+        OK,
+        /** キャッシュにより問い合わせを省略した。 */
+        CACHE_HIT,
+        /** キャッシュになく、問い合わせた。 */
+        CACHE_MISS,
+        /** 起動対象がインストールされておらず、マーケットを開いた。 */
+        MARKET_FALLBACK,
+        /** マーケットも開けなかった。 */
+        MARKET_FAILED,
+        /** 起動対象の呼び出しに失敗した({@link android.content.ActivityNotFoundException})。 */
+        LAUNCH_FAILED,
+        /** 起動対象がインストールされていた。 */
+        INSTALLED,
+        /** 起動対象がインストールされていなかった。 */
+        NOT_INSTALLED,
+        /** 途中で中止された。 */
+        CANCELLED,
+        /** 上限に達したため途中で終了した。 */
+        BUDGET,
+        /** 失敗した。 */
+        FAILED,
+    }
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    /**
+     * プロセス全体で共有される {@link Metrics} を返します。
+     *
+     * @return {@link Metrics} のインスタンス。
+     */
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    /*
+     * 以下のフィールドは this で同期してアクセスすること。
+     */
+
+    /** 処理の種類ごとの、所要時間(マイクロ秒)のリングバッファ。 */
+    private final long[][] micros_ = new long[STAGES.length][RING_SIZE];
+
+    /** 処理の種類ごとの、結果の {@link Outcome#ordinal()} のリングバッファ。 */
+    private final byte[][] outcomes_ = new byte[STAGES.length][RING_SIZE];
+
+    /** 処理の種類ごとの、これまでの記録の総数。 */
+    private final int[] totals_ = new int[STAGES.length];
+
+    /** 保存済みの記録を読み込んでいれば {@code true}。 */
+    private boolean loaded_ = false;
+
+    /** 前回の保存以降に記録していれば {@code true}。 */
+    private boolean dirty_ = false;
+
+    /** ファイルの読み書きを直列化するためのロック。 */
+    private final Object fileLock_ = new Object();
+
+    private Metrics() {
+        super();
+    }
+
+    /**
+     * 処理の所要時間と結果を記録します。
+     *
+     * @param stage 処理の種類。
+     * @param startNanos {@link System#nanoTime()} で取得した処理の開始時刻。現在時刻までを所要時間とします。
+     * @param outcome 処理の結果。
+     */
+    public void record(Stage stage, long startNanos, Outcome outcome) {
+        final long micros = (System.nanoTime() - startNanos) / 1000L;
+        final int s = stage.ordinal();
+        synchronized (this) {
+            final int slot = totals_[s] % RING_SIZE;
+            micros_[s][slot] = micros;
+            outcomes_[s][slot] = (byte) outcome.ordinal();
+            totals_[s]++;
+            dirty_ = true;
+        }
+    }
+
+    /**
+     * 以前のプロセスが保存した記録を読み込み、現在のプロセスの記録の前に加えます。
+     * 2 回目以降の呼び出しでは何もしません。
+     * <p>
+     * ファイルを読み込むため、 UI スレッドから呼び出さないでください。
+     * </p>
+     *
+     * @param context コンテキスト。
+     */
+    public void load(Context context) {
+        synchronized (fileLock_) {
+            synchronized (this) {
+                if (loaded_) {
+                    return;
+                }
+            }
+            final File file = new File(context.getCacheDir(), FILE_NAME);
+            final long[][] micros = new long[STAGES.length][];
+            final byte[][] outcomes = new byte[STAGES.length][];
+            final int[] totals = new int[STAGES.length];
+            if (file.isFile() && !read(file, micros, outcomes, totals)) {
+                file.delete();
+            }
+            synchronized (this) {
+                for (int s = 0; s < STAGES.length; s++) {
+                    if (micros[s] != null) {
+                        prependLocked(s, micros[s], outcomes[s], totals[s]);
+                    }
+                }
+                loaded_ = true;
+            }
+        }
+    }
+
+    /**
+     * 前回の保存以降に記録していれば、以前のプロセスの記録と合わせてファイルに保存します。
+     * 保存はバックグラウンドのスレッドで行うため、 UI スレッドから呼び出せます。
+     * 複数のプロセスが同時に存在した場合は、後から保存したプロセスが読み込んだ時点以降の他のプロセスの記録は失われます。
+     *
+     * @param context コンテキスト。
+     */
+    public void saveInBackground(Context context) {
+        synchronized (this) {
+            if (!dirty_) {
+                return;
+            }
+        }
+        final Context appContext = context.getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                save(appContext);
+            }
+        }, "MetricsWriter").start();
+    }
+
+    /**
+     * 以前のプロセスの記録と合わせて、ファイルに保存します。
+     */
+    private void save(Context appContext) {
+        synchronized (fileLock_) {
+            load(appContext);
+            final long[][] micros = new long[STAGES.length][];
+            final byte[][] outcomes = new byte[STAGES.length][];
+            final int[] totals;
+            synchronized (this) {
+                if (!dirty_) {
+                    return;
+                }
+                for (int s = 0; s < STAGES.length; s++) {
+                    final int count = Math.min(totals_[s], RING_SIZE);
+                    micros[s] = new long[count];
+                    outcomes[s] = new byte[count];
+                    copyInOrderLocked(s, micros[s], outcomes[s]);
+                }
+                totals = totals_.clone();
+                dirty_ = false;
+            }
+            final File file = new File(appContext.getCacheDir(), FILE_NAME);
+            final File tmp = new File(file.getPath() + ".tmp");
+            try {
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(tmp)));
+                try {
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeInt(STAGES.length);
+                    for (Stage stage : STAGES) {
+                        final int s = stage.ordinal();
+                        out.writeUTF(stage.name());
+                        out.writeInt(totals[s]);
+                        out.writeInt(micros[s].length);
+                        for (int i = 0; i < micros[s].length; i++) {
+                            out.writeLong(micros[s][i]);
+                            out.writeByte(outcomes[s][i]);
+                        }
+                    }
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "failed to write metrics: " + file, e);
+                tmp.delete();
+                return;
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * 保存された記録を、古い順に処理の種類ごとの配列に読み込みます。
+     *
+     * @return 読み込めた場合は {@code true}。ファイルが壊れているか、形式が異なる場合は {@code false}。
+     */
+    private static boolean read(File file, long[][] micros, byte[][] outcomes, int[] totals) {
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            try {
+                if (in.readInt() != FORMAT_VERSION) {
+                    return false;
+                }
+                final int stageCount = in.readInt();
+                for (int i = 0; i < stageCount; i++) {
+                    final String name = in.readUTF();
+                    final int total = in.readInt();
+                    final int count = in.readInt();
+                    if (count < 0 || RING_SIZE < count || total < count) {
+                        return false;
+                    }
+                    final long[] m = new long[count];
+                    final byte[] o = new byte[count];
+                    for (int j = 0; j < count; j++) {
+                        m[j] = in.readLong();
+                        o[j] = in.readByte();
+                        if (o[j] < 0 || OUTCOMES.length <= o[j]) {
+                            return false;
+                        }
+                    }
+                    final Stage stage = stageOf(name);
+                    if (stage != null) {
+                        micros[stage.ordinal()] = m;
+                        outcomes[stage.ordinal()] = o;
+                        totals[stage.ordinal()] = total;
+                    }
+                }
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to read metrics: " + file, e);
+            return false;
+        }
+    }
+
+    @CheckForNull
+    private static Stage stageOf(String name) {
+        for (Stage stage : STAGES) {
+            if (stage.name().equals(name)) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * 以下のメソッドは、 this で同期した状態で呼び出すこと。
+     */
+
+    /**
+     * 処理の種類のリングバッファに残っている記録を、古い順に配列に写します。配列の長さは記録の数と等しいこと。
+     */
+    private void copyInOrderLocked(int s, long[] micros, byte[] outcomes) {
+        final int count = micros.length;
+        final int first = totals_[s] - count;
+        for (int i = 0; i < count; i++) {
+            final int slot = (first + i) % RING_SIZE;
+            micros[i] = micros_[s][slot];
+            outcomes[i] = outcomes_[s][slot];
+        }
+    }
+
+    /**
+     * 以前のプロセスの記録を、処理の種類のリングバッファの現在の記録の前に加えます。あふれた分は古いものから捨てます。
+     */
+    private void prependLocked(int s, long[] oldMicros, byte[] oldOutcomes, int oldTotal) {
+        final int currentCount = Math.min(totals_[s], RING_SIZE);
+        final long[] currentMicros = new long[currentCount];
+        final byte[] currentOutcomes = new byte[currentCount];
+        copyInOrderLocked(s, currentMicros, currentOutcomes);
+
+        final int total = oldTotal + totals_[s];
+        final int keptOld = Math.min(oldMicros.length, RING_SIZE - currentCount);
+        int index = total - currentCount - keptOld;
+        for (int i = oldMicros.length - keptOld; i < oldMicros.length; i++, index++) {
+            micros_[s][index % RING_SIZE] = oldMicros[i];
+            outcomes_[s][index % RING_SIZE] = oldOutcomes[i];
+        }
+        for (int i = 0; i < currentCount; i++, index++) {
+            micros_[s][index % RING_SIZE] = currentMicros[i];
+            outcomes_[s][index % RING_SIZE] = currentOutcomes[i];
+        }
+        totals_[s] = total;
+    }
+
+    /**
+     * 記録を処理の種類ごとに集計して出力します。集計のためのオブジェクトはここで生成します。
+     *
+     * @param out 出力先。
+     */
+    public void dump(PrintWriter out) {
+        final long[] micros = new long[RING_SIZE];
+        final int[] outcomeCounts = new int[OUTCOMES.length];
+        for (Stage stage : STAGES) {
+            final int s = stage.ordinal();
+            final int total;
+            final int count;
+            synchronized (this) {
+                total = totals_[s];
+                count = Math.min(total, RING_SIZE);
+                System.arraycopy(micros_[s], 0, micros, 0, count);
+                Arrays.fill(outcomeCounts, 0);
+                for (int i = 0; i < count; i++) {
+                    outcomeCounts[outcomes_[s][i]]++;
+                }
+            }
+            out.print(stage.name());
+            out.print(": total=");
+            out.print(total);
+            if (count == 0) {
+                out.println();
+                continue;
+            }
+            Arrays.sort(micros, 0, count);
+            out.print(", recent=");
+            out.print(count);
+            out.print(", p50=");
+            out.print(formatMillis(percentile(micros, count, 50)));
+            out.print(", p95=");
+            out.print(formatMillis(percentile(micros, count, 95)));
+            out.print(", p99=");
+            out.print(formatMillis(percentile(micros, count, 99)));
+            out.print(", max=");
+            out.print(formatMillis(micros[count - 1]));
+            for (Outcome outcome : OUTCOMES) {
+                final int n = outcomeCounts[outcome.ordinal()];
+                if (n == 0) {
+                    continue;
+                }
+                out.print(", ");
+                out.print(outcome.name());
+                out.print('=');
+                out.print(n);
+            }
+            out.println();
+        }
+        out.flush();
+    }
+
+    @Override
+    public String toString() {
+        final StringWriter sw = new StringWriter();
+        dump(new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    /**
+     * 昇順に並んだ値から、 nearest-rank 法でパーセンタイルを求めます。
+     */
+    private static long percentile(long[] sorted, int count, int percent) {
+        final int rank = (count * percent + 99) / 100;
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static String formatMillis(long micros) {
+        return (micros / 1000L) + "." + ((micros % 1000L) / 100L) + "ms";
+    }
+}
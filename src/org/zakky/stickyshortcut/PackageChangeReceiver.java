@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut;
+
+import org.zakky.stickyshortcut.catalog.AppCatalog;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * パッケージの追加・削除・変更・更新の通知を受け、 {@link AppCatalog} 、 {@link LaunchTargetCache}
+ * とアイコンのキャッシュに反映するレシーバです。
+ * <p>
+ * メインスレッドで呼び出されるため、ここではメモリ上の {@link LaunchTargetCache} の破棄のみを行い、
+ * パッケージマネージャへの問い合わせやファイルの削除を伴う反映は {@link PackageChangeService} に任せます。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class PackageChangeReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final Uri data = intent.getData();
+        if (data == null) {
+            return;
+        }
+        final String packageName = data.getSchemeSpecificPart();
+        if (packageName == null) {
+            return;
+        }
+        final String action = intent.getAction();
+        final boolean replacing = intent.getBooleanExtra(Intent.EXTRA_REPLACING, false);
+
+        final boolean removed;
+        if (Intent.ACTION_PACKAGE_REMOVED.equals(action)) {
+            if (replacing) {
+                // 更新の途中。続いて通知される ACTION_PACKAGE_REPLACED で反映する。
+                return;
+            }
+            removed = true;
+        } else if (Intent.ACTION_PACKAGE_ADDED.equals(action)) {
+            if (replacing) {
+                // ACTION_PACKAGE_REPLACED と重複するため無視する。
+                return;
+            }
+            removed = false;
+        } else if (Intent.ACTION_PACKAGE_CHANGED.equals(action)
+                || Intent.ACTION_PACKAGE_REPLACED.equals(action)) {
+            removed = false;
+        } else {
+            return;
+        }
+
+        // コンポーネントの有効・無効の変更も起動可否に影響する。メモリ上の判定結果のみのため、ここで破棄する。
+        LaunchTargetCache.getInstance().invalidatePackage(packageName);
+        // コンポーネントの有効・無効が変わっただけであれば、アイコンは変わらない。
+        PackageChangeService.start(context.getApplicationContext(), packageName, removed,
+                !Intent.ACTION_PACKAGE_CHANGED.equals(action));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut;
+
+import org.zakky.stickyshortcut.catalog.AppCatalog;
+import org.zakky.stickyshortcut.catalog.ThumbnailLoader;
+import org.zakky.stickyshortcut.icon.ShortcutIconCache;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Process;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * {@link PackageChangeReceiver} が受けたパッケージの変更を、 {@link AppCatalog}
+ * とアイコンのキャッシュに反映するサービスです。
+ * <p>
+ * パッケージマネージャへの問い合わせやファイルの削除を伴うため、 {@link IntentService}
+ * のワーカースレッドで 1 件ずつ処理します。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class PackageChangeService extends IntentService {
+
+    /** {@code boolean} 。パッケージが削除された場合は {@code true} 。 */
+    private static final String EXTRA_REMOVED = "org.zakky.stickyshortcut.REMOVED";
+
+    /** {@code boolean} 。パッケージが追加・更新され、アイコンが変わった可能性がある場合は {@code true} 。 */
+    private static final String EXTRA_ICON_CHANGED = "org.zakky.stickyshortcut.ICON_CHANGED";
+
+    /**
+     * パッケージの変更の反映を要求します。
+     *
+     * @param context コンテキスト。
+     * @param packageName 変更されたパッケージ名。
+     * @param removed パッケージが削除された場合は {@code true} 。
+     * @param iconChanged アイコンが変わった可能性がある場合は {@code true} 。
+     */
+    static void start(Context context, String packageName, boolean removed, boolean iconChanged) {
+        final Intent intent = new Intent(context, PackageChangeService.class);
+        intent.setData(Uri.fromParts("package", packageName, null));
+        intent.putExtra(EXTRA_REMOVED, removed);
+        intent.putExtra(EXTRA_ICON_CHANGED, iconChanged);
+        context.startService(intent);
+    }
+
+    public PackageChangeService() {
+        super(PackageChangeService.class.getSimpleName());
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        final Uri data = intent.getData();
+        if (data == null) {
+            return;
+        }
+        final String packageName = data.getSchemeSpecificPart();
+        if (packageName == null) {
+            return;
+        }
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+        final Context appContext = getApplicationContext();
+        AppCatalog.getInstance(appContext).applyPackageChange(appContext.getPackageManager(),
+                packageName, intent.getBooleanExtra(EXTRA_REMOVED, false));
+        if (!intent.getBooleanExtra(EXTRA_ICON_CHANGED, false)) {
+            return;
+        }
+        ThumbnailLoader.getInstance(appContext).invalidatePackage(packageName);
+        ShortcutIconCache.getInstance(appContext).invalidatePackage(packageName);
+    }
+}
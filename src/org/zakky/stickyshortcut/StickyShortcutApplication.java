@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut;
+
+import org.zakky.stickyshortcut.icon.LayerCache;
+import org.zakky.stickyshortcut.icon.RenderScheduler;
+
+import android.app.Application;
+import android.content.Context;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * スティッキーショートカットのアプリケーションクラスです。プロセス全体で共有する {@link RenderScheduler} を保持します。
+ * また、レイヤー画像のアトラスを開くためのコンテキストを {@link LayerCache} に設定します。
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class StickyShortcutApplication extends Application {
+
+    /**
+     * アイコンの作成・読み込みを行うスレッドの数。サムネイルの読み込みは I/O 待ちを含むため複数とする。
+     */
+    private static final int RENDER_THREADS = 2;
+
+    @CheckForNull
+    private RenderScheduler scheduler_ = null;
+
+    /**
+     * プロセス全体で共有される {@link RenderScheduler} を返します。初回の呼び出しでワーカースレッドを起動します。
+     * ショートカットからの起動やパッケージの変更の通知のためだけに起動されたプロセスでは作成しません。
+     *
+     * @param context コンテキスト。
+     * @return {@link RenderScheduler} のインスタンス。
+     */
+    public static RenderScheduler getRenderScheduler(Context context) {
+        return ((StickyShortcutApplication) context.getApplicationContext()).getRenderScheduler();
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // アトラスは、最初にレイヤー画像が必要になった際に開かれる。
+        LayerCache.getInstance().setAtlasContext(this);
+    }
+
+    @Override
+    public void onTerminate() {
+        super.onTerminate();
+        final RenderScheduler scheduler = scheduler_;
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    private synchronized RenderScheduler getRenderScheduler() {
+        RenderScheduler scheduler = scheduler_;
+        if (scheduler == null) {
+            scheduler = new RenderScheduler(RENDER_THREADS);
+            scheduler_ = scheduler;
+        }
+        return scheduler;
+    }
+}
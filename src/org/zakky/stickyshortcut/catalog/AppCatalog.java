@@ -0,0 +1,642 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.catalog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * ランチャーから起動可能なアプリの一覧(カタログ)を保持するクラスです。
+ * <p>
+ * カタログはラベル・コンポーネントからなり、プロセス内のメモリと、キャッシュディレクトリ上のスナップショット
+ * ファイルに保持します。アイコンは含まず、表示時に {@link ThumbnailLoader} が読み込みます。
+ * 起動直後はスナップショットをそのまま表示し、その後 {@link #reconcile(PackageManager)}
+ * でパッケージマネージャの内容と突き合わせて、追加・更新されたアプリのみラベルを読み込み直します。
+ * </p>
+ * <p>
+ * 一度突き合わせを行った後は、パッケージの追加・削除・更新の通知を受けて
+ * {@link #applyPackageChange(PackageManager, String, boolean)} でパッケージ単位に更新するため、
+ * {@link #isStale()} が {@code true} になるまで突き合わせ直す必要はありません。
+ * </p>
+ * <p>
+ * ファイルへのアクセスやパッケージマネージャへの問い合わせを行うため、 UI スレッドから呼び出さないでください。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class AppCatalog {
+    private static final String TAG = AppCatalog.class.getSimpleName();
+
+    /** スナップショットのファイル名。 */
+    private static final String FILE_NAME = "app_catalog.bin";
+
+    /** スナップショットの形式のバージョン。形式を変更した場合は値を変えること。 */
+    private static final int FORMAT_VERSION = 2;
+
+    /** 突き合わせ中に、新たに見つかったアプリをまとめて通知する単位。 */
+    private static final int CHUNK_SIZE = 16;
+
+    /**
+     * 突き合わせでラベルの読み込みに使用するスレッド数。読み込みは I/O 待ちを含むため、シングルコアでも 2 とする。
+     */
+    public static final int LABEL_THREADS = Math.min(4, Math.max(2, Runtime.getRuntime()
+            .availableProcessors()));
+
+    /** ラベルを読み込むスレッドが、仕事がなくなってから終了するまでの時間(秒)。 */
+    private static final long LABEL_THREAD_KEEP_ALIVE_SECONDS = 30L;
+
+    /**
+     * ラベルの読み込みに使用するスレッドプール。すべての突き合わせで共有し、終了しない。
+     * 仕事がない間はスレッドを保持せず、スレッドが足りない場合は呼び出し元のスレッドで読み込む。
+     */
+    private static final ExecutorService LABEL_EXECUTOR = new ThreadPoolExecutor(0, LABEL_THREADS,
+            LABEL_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "LabelResolver");
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    /**
+     * カタログの並び順であるラベル順に並べるための比較器。ラベルはロケールに従って比較し、
+     * 同じ順位のものはラベル、コンポーネントの順に比較して並び順を決定的にする。
+     */
+    public static final Comparator<AppInfo> LABEL_ORDER = new Comparator<AppInfo>() {
+        @Override
+        public int compare(AppInfo app1, AppInfo app2) {
+            final int bySortKey = app1.getSortKey().compareTo(app2.getSortKey());
+            if (bySortKey != 0) {
+                return bySortKey;
+            }
+            final int byLabel = app1.getLabel().compareTo(app2.getLabel());
+            if (byLabel != 0) {
+                return byLabel;
+            }
+            return app1.getComponentKey().compareTo(app2.getComponentKey());
+        }
+    };
+
+    /**
+     * 突き合わせ中に新たに見つかったアプリを、逐次受け取るリスナです。
+     */
+    public interface ChunkListener {
+        /**
+         * カタログに含まれていなかったアプリがいくつか見つかった際に、ラベルを読み込んだワーカースレッドから呼び出されます。
+         * 同時に複数のスレッドから呼び出されることはありません。
+         *
+         * @param chunk 新たに見つかったアプリ。ラベル順に並んでいます。呼び出し側で保持・変更してかまいません。
+         */
+        void onChunk(List<AppInfo> chunk);
+    }
+
+    @CheckForNull
+    private static AppCatalog instance_ = null;
+
+    /**
+     * プロセス全体で共有される {@link AppCatalog} を返します。
+     *
+     * @param context コンテキスト。初回呼び出し時にスナップショットの保存先の決定に使用します。
+     * @return {@link AppCatalog} のインスタンス。
+     */
+    public static synchronized AppCatalog getInstance(Context context) {
+        AppCatalog instance = instance_;
+        if (instance == null) {
+            final Context appContext = context.getApplicationContext();
+            instance = new AppCatalog(new File(appContext.getCacheDir(), FILE_NAME));
+            instance_ = instance;
+        }
+        return instance;
+    }
+
+    private final File file_;
+
+    /** メモリ上のカタログ。ラベル順に並んだ変更不可能なリスト。 {@code this} で同期してアクセスすること。 */
+    @CheckForNull
+    private List<AppInfo> apps_ = null;
+
+    /** {@link #apps_} の検索インデックス。 {@link #apps_} と同時に更新する。 {@code this} で同期してアクセスすること。 */
+    @CheckForNull
+    private AppSearchIndex index_ = null;
+
+    /**
+     * {@link #apps_} がパッケージマネージャの内容と一致している保証がない場合に {@code true}。
+     * プロセス起動後、最初の突き合わせが完了するまでは {@code true}。
+     */
+    private boolean stale_ = true;
+
+    private AppCatalog(File file) {
+        super();
+        file_ = file;
+    }
+
+    /**
+     * 保持しているカタログを返します。メモリ上になければスナップショットファイルから読み込みます。
+     *
+     * @return ラベル順に並んだ変更不可能なリスト。カタログがない場合は空のリスト。
+     */
+    public synchronized List<AppInfo> getSnapshot() {
+        final List<AppInfo> apps = apps_;
+        if (apps != null) {
+            return apps;
+        }
+        final List<AppInfo> loaded = Collections.unmodifiableList(load());
+        apps_ = loaded;
+        index_ = AppSearchIndex.build(loaded);
+        return loaded;
+    }
+
+    /**
+     * 指定されたカタログの検索インデックスを返します。インデックスはカタログを読み込む・更新する際に
+     * 作成済みのため、 UI スレッドから呼び出すことができます。
+     *
+     * @param apps {@link #getSnapshot()} などが返したカタログ。
+     * @return 検索インデックス。 {@code apps} が現在のカタログでない場合は {@code null}。
+     */
+    @CheckForNull
+    public synchronized AppSearchIndex getSearchIndex(List<AppInfo> apps) {
+        final AppSearchIndex index = index_;
+        if (index == null || index.getApps() != apps) {
+            return null;
+        }
+        return index;
+    }
+
+    /**
+     * メモリ上のカタログが最新であれば、それを返します。ファイルへのアクセスもパッケージマネージャへの問い合わせも
+     * 行わないため、 UI スレッドから呼び出すことができます。
+     *
+     * @return ラベル順に並んだ変更不可能なリスト。メモリ上にない、最新でない場合は {@code null}。
+     */
+    @CheckForNull
+    public synchronized List<AppInfo> getIfFresh() {
+        if (stale_) {
+            return null;
+        }
+        return apps_;
+    }
+
+    /**
+     * メモリ上のカタログが、パッケージマネージャの内容と一致している保証がないかどうかを返します。
+     *
+     * @return 突き合わせが必要であれば {@code true}。
+     */
+    public synchronized boolean isStale() {
+        return stale_;
+    }
+
+    /**
+     * パッケージマネージャの内容とカタログを突き合わせ、差分を反映します。
+     * <p>
+     * バージョンが変わっていないアプリは保持している情報をそのまま使い、追加・更新されたアプリのみラベルを
+     * 読み込みます。差分があった場合はスナップショットファイルも更新します。
+     * </p>
+     * <p>
+     * 突き合わせ前のカタログに含まれていなかったアプリは、ラベルを読み込んだものから {@link ChunkListener}
+     * に通知します。スナップショットがない初回でも、すべてのラベルの読み込みを待たずに表示を始めることができます。
+     * </p>
+     *
+     * @param pm パッケージマネージャ。
+     * @param listener 新たに見つかったアプリを受け取るリスナ。不要であれば {@code null}。
+     * @return 差分を反映したカタログ。差分がなかった場合は {@code null}。突き合わせ中に
+     *         {@link #applyPackageChange(PackageManager, String, boolean)} でカタログが更新された場合は、
+     *         突き合わせの結果を捨ててその時点のカタログを返し、 {@link #isStale()} を {@code true} にします。
+     */
+    @CheckForNull
+    public List<AppInfo> reconcile(PackageManager pm, @CheckForNull ChunkListener listener) {
+        final List<AppInfo> known = getSnapshot();
+        final Map<String, AppInfo> knownMap = new HashMap<String, AppInfo>(known.size() * 2);
+        for (AppInfo app : known) {
+            knownMap.put(app.getComponentKey(), app);
+        }
+
+        final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+        mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+        final List<ResolveInfo> resolved = pm.queryIntentActivities(mainIntent, 0);
+
+        // そのまま使えるものは slots に入れ、ラベルの読み込みが必要なものは targets に集める。
+        final AppInfo[] slots = new AppInfo[resolved.size()];
+        final List<ResolveInfo> targets = new ArrayList<ResolveInfo>();
+        final int[] targetSlots = new int[resolved.size()];
+        final boolean[] targetIsNew = new boolean[resolved.size()];
+        int reused = 0;
+        for (int i = 0; i < resolved.size(); i++) {
+            final ResolveInfo info = resolved.get(i);
+            final String packageName = info.activityInfo.packageName;
+            if (packageName == null) {
+                continue;
+            }
+            final AppInfo current = knownMap.get(AppInfo.componentKey(packageName,
+                    info.activityInfo.name));
+            if (current != null
+                    && current.getVersionStamp().equals(
+                            versionStampOf(info.activityInfo.applicationInfo))) {
+                slots[i] = current;
+                reused++;
+                continue;
+            }
+            targetSlots[targets.size()] = i;
+            targetIsNew[targets.size()] = (current == null);
+            targets.add(info);
+        }
+
+        final ChunkBuffer chunks = (listener == null) ? null : new ChunkBuffer(listener);
+        final int threads = LABEL_THREADS;
+        final long start = SystemClock.uptimeMillis();
+        final AppInfo[] loaded;
+        try {
+            loaded = resolveApps(pm, targets, threads, (chunks == null) ? null
+                    : new ResolveListener() {
+                        @Override
+                        public void onResolved(int index, AppInfo app) {
+                            // 表示中の一覧に含まれていないものだけを逐次通知する。
+                            if (targetIsNew[index]) {
+                                chunks.add(app);
+                            }
+                        }
+                    });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (chunks != null) {
+            chunks.flush();
+        }
+        if (!targets.isEmpty()) {
+            Log.i(TAG, "resolved " + targets.size() + " labels with " + threads
+                    + " thread(s) in " + (SystemClock.uptimeMillis() - start) + "ms");
+        }
+
+        // 並列に読み込んだ結果を、問い合わせ結果の順に戻してからソートすることで、結果を決定的にする。
+        for (int i = 0; i < loaded.length; i++) {
+            slots[targetSlots[i]] = loaded[i];
+        }
+        final List<AppInfo> apps = new ArrayList<AppInfo>(resolved.size());
+        for (AppInfo app : slots) {
+            if (app != null) {
+                apps.add(app);
+            }
+        }
+        if (reused == apps.size() && reused == known.size()) {
+            synchronized (this) {
+                if (apps_ != known) {
+                    // 突き合わせ中にパッケージの変更が反映された。問い合わせ結果はそれより古い可能性がある。
+                    stale_ = true;
+                    return apps_;
+                }
+                stale_ = false;
+            }
+            return null;
+        }
+        Collections.sort(apps, LABEL_ORDER);
+
+        final List<AppInfo> result = Collections.unmodifiableList(apps);
+        final AppSearchIndex index = AppSearchIndex.build(result);
+        synchronized (this) {
+            if (apps_ != known) {
+                // 突き合わせ中にパッケージの変更が反映された。どちらが新しいか判断できないため、
+                // 反映済みのものを残し、次回に突き合わせ直す。
+                stale_ = true;
+                return apps_;
+            }
+            apps_ = result;
+            index_ = index;
+            stale_ = false;
+        }
+        save(result);
+        return result;
+    }
+
+    /**
+     * ランチャーから起動可能なすべてのアクティビティのラベルを、指定されたスレッド数で読み込むのに要する時間を計測します。
+     * カタログは変更しません。逐次読み込みと並列読み込みの比較に使用します。
+     * {@link #LABEL_THREADS} を超えるスレッド数を指定しても、超えた分は呼び出し元のスレッドで読み込みます。
+     *
+     * @param pm パッケージマネージャ。
+     * @param threads 読み込みに使用するスレッド数。 {@code 1} であれば呼び出し元のスレッドで逐次読み込みます。
+     * @return 所要時間(ミリ秒)。中断された場合は {@code -1}。
+     */
+    public long measureLabelResolution(PackageManager pm, int threads) {
+        final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+        mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+        final List<ResolveInfo> targets = new ArrayList<ResolveInfo>();
+        for (ResolveInfo info : pm.queryIntentActivities(mainIntent, 0)) {
+            if (info.activityInfo.packageName != null) {
+                targets.add(info);
+            }
+        }
+
+        final long start = SystemClock.uptimeMillis();
+        try {
+            resolveApps(pm, targets, threads, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1L;
+        }
+        final long elapsed = SystemClock.uptimeMillis() - start;
+        Log.i(TAG, "measured " + targets.size() + " labels with " + threads + " thread(s): "
+                + elapsed + "ms");
+        return elapsed;
+    }
+
+    /**
+     * 1 つのパッケージの追加・削除・更新をカタログに反映します。
+     * <p>
+     * 対象パッケージのエントリを取り除き、削除でなければ対象パッケージのアクティビティのみラベルを読み込んで
+     * 追加し直します。メモリ上にカタログがない場合は、次回の {@link #getSnapshot()} 後の突き合わせで
+     * 反映されるため何もしません。
+     * </p>
+     *
+     * @param pm パッケージマネージャ。
+     * @param packageName 対象のパッケージ名。
+     * @param removed パッケージが削除された場合は {@code true}。
+     */
+    public void applyPackageChange(PackageManager pm, String packageName, boolean removed) {
+        final List<AppInfo> known;
+        synchronized (this) {
+            known = apps_;
+        }
+        if (known == null) {
+            return;
+        }
+
+        final List<AppInfo> apps = new ArrayList<AppInfo>(known.size() + 1);
+        for (AppInfo app : known) {
+            if (!app.getPackageName().equals(packageName)) {
+                apps.add(app);
+            }
+        }
+        if (!removed) {
+            // Intent#setPackage() は API Level 4 からのため、全体を問い合わせて絞り込む。
+            final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
+            mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
+            for (ResolveInfo info : pm.queryIntentActivities(mainIntent, 0)) {
+                if (!packageName.equals(info.activityInfo.packageName)) {
+                    continue;
+                }
+                apps.add(resolveApp(pm, info));
+            }
+        }
+        Collections.sort(apps, LABEL_ORDER);
+
+        final List<AppInfo> result = Collections.unmodifiableList(apps);
+        final AppSearchIndex index = AppSearchIndex.build(result);
+        synchronized (this) {
+            if (apps_ != known) {
+                // 並行して突き合わせが行われた。どちらが新しいか判断できないため、次回に突き合わせ直す。
+                stale_ = true;
+                return;
+            }
+            apps_ = result;
+            index_ = index;
+        }
+        save(result);
+    }
+
+    /**
+     * 指定されたアクティビティのラベルを読み込み、 {@link AppInfo} を作成します。
+     * <p>
+     * ラベルの読み込みは対象アプリのリソースを開くため、 {@code threads} が {@code 2} 以上であれば
+     * {@link #LABEL_EXECUTOR} のスレッドに分散して並列に行います。
+     * </p>
+     *
+     * @param pm パッケージマネージャ。
+     * @param targets 対象のアクティビティ。
+     * @param threads 使用するスレッド数。
+     * @param listener 1 つ読み込むごとに、読み込んだスレッドから呼び出されるリスナ。不要であれば {@code null}。
+     * @return {@code targets} と同じ順に並んだ {@link AppInfo}。
+     * @throws InterruptedException 読み込みの完了待ちの間に割り込まれた場合。
+     */
+    private static AppInfo[] resolveApps(final PackageManager pm,
+            final List<ResolveInfo> targets, int threads,
+            @CheckForNull final ResolveListener listener) throws InterruptedException {
+        final AppInfo[] apps = new AppInfo[targets.size()];
+        if (threads <= 1 || targets.size() <= 1) {
+            for (int i = 0; i < apps.length; i++) {
+                apps[i] = resolveApp(pm, targets.get(i));
+                if (listener != null) {
+                    listener.onResolved(i, apps[i]);
+                }
+            }
+            return apps;
+        }
+
+        final AtomicInteger next = new AtomicInteger(0);
+        final Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int i;
+                while ((i = next.getAndIncrement()) < apps.length) {
+                    apps[i] = resolveApp(pm, targets.get(i));
+                    if (listener != null) {
+                        listener.onResolved(i, apps[i]);
+                    }
+                }
+            }
+        };
+        final int workers = Math.min(threads, apps.length);
+        final List<Future<?>> futures = new ArrayList<Future<?>>(workers);
+        try {
+            for (int i = 0; i < workers; i++) {
+                futures.add(LABEL_EXECUTOR.submit(worker));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            // 失敗・中断した場合に、残りの読み込みを打ち切る。完了済みのものには影響しない。
+            next.set(apps.length);
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return apps;
+    }
+
+    private static AppInfo resolveApp(PackageManager pm, ResolveInfo info) {
+        final CharSequence label = info.loadLabel(pm);
+        return new AppInfo(label.toString(), info.activityInfo.name,
+                info.activityInfo.packageName, versionStampOf(info.activityInfo.applicationInfo));
+    }
+
+    /**
+     * {@link #resolveApps} で 1 つ読み込むごとに呼び出されるリスナです。
+     */
+    private interface ResolveListener {
+        void onResolved(int index, AppInfo app);
+    }
+
+    /**
+     * 複数のスレッドから追加されたアプリを {@link #CHUNK_SIZE} 個ずつまとめ、ラベル順に並べて
+     * {@link ChunkListener} に通知するバッファです。
+     */
+    private static final class ChunkBuffer {
+        private final ChunkListener listener_;
+
+        private final List<AppInfo> chunk_ = new ArrayList<AppInfo>(CHUNK_SIZE);
+
+        ChunkBuffer(ChunkListener listener) {
+            listener_ = listener;
+        }
+
+        synchronized void add(AppInfo app) {
+            chunk_.add(app);
+            if (chunk_.size() == CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        synchronized void flush() {
+            if (chunk_.isEmpty()) {
+                return;
+            }
+            final List<AppInfo> sorted = new ArrayList<AppInfo>(chunk_);
+            Collections.sort(sorted, LABEL_ORDER);
+            chunk_.clear();
+            listener_.onChunk(sorted);
+        }
+    }
+
+    /**
+     * 差分検出に使用する、アプリケーションのバージョンを表す文字列を返します。
+     * <p>
+     * パッケージマネージャへの問い合わせを避けるため、 APK ファイルのパスと更新日時から構成します。
+     * ファイル名の一部としても使用するため、英数字と {@code '-'} のみで構成します。
+     * </p>
+     */
+    private static String versionStampOf(@CheckForNull ApplicationInfo info) {
+        if (info == null || info.sourceDir == null) {
+            return "0";
+        }
+        return Integer.toHexString(info.sourceDir.hashCode()) + '-'
+                + Long.toString(new File(info.sourceDir).lastModified(), Character.MAX_RADIX);
+    }
+
+    /**
+     * スナップショットファイルを読み込みます。
+     *
+     * @return 読み込んだカタログ。ファイルがない、壊れている、ロケールが異なる場合は空のリスト。
+     */
+    private List<AppInfo> load() {
+        if (!file_.isFile()) {
+            return new ArrayList<AppInfo>(0);
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file_)));
+            try {
+                if (in.readInt() != FORMAT_VERSION
+                        || !in.readUTF().equals(Locale.getDefault().toString())) {
+                    return new ArrayList<AppInfo>(0);
+                }
+                final int count = in.readInt();
+                final List<AppInfo> apps = new ArrayList<AppInfo>(count);
+                for (int i = 0; i < count; i++) {
+                    final String packageName = in.readUTF();
+                    final String activityFqcn = in.readUTF();
+                    final String label = in.readUTF();
+                    final String stamp = in.readUTF();
+                    apps.add(new AppInfo(label, activityFqcn, packageName, stamp));
+                }
+                return apps;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to read app catalog: " + file_, e);
+            file_.delete();
+            return new ArrayList<AppInfo>(0);
+        }
+    }
+
+    /**
+     * スナップショットファイルを書き出します。
+     */
+    private void save(List<AppInfo> apps) {
+        final File tmp = new File(file_.getPath() + ".tmp");
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            try {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(Locale.getDefault().toString());
+                out.writeInt(apps.size());
+                for (AppInfo app : apps) {
+                    out.writeUTF(app.getPackageName());
+                    out.writeUTF(app.getActivityFqcn());
+                    out.writeUTF(app.getLabel());
+                    out.writeUTF(app.getVersionStamp());
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write app catalog: " + file_, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file_)) {
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.catalog;
+
+import java.text.CollationKey;
+import java.text.Collator;
+
+import android.content.ComponentName;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.graphics.drawable.Drawable;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * アプリ一覧に表示される１つのアプリの情報を保持するクラスです。
+ * <p>
+ * アイコンは保持しません。グリッドに表示するサムネイルは {@link ThumbnailLoader} が表示時に読み込み、
+ * オリジナルのアイコンは必要になった時点で {@link #getFullIcon(PackageManager)} がパッケージマネージャから取得します。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class AppInfo {
+    /**
+     * ラベルから並び順のキーを作成するコレーター。 {@link Collator} はスレッドセーフではないため、
+     * ラベルを読み込むスレッドごとに保持する。
+     */
+    private static final ThreadLocal<Collator> COLLATOR = new ThreadLocal<Collator>() {
+        @Override
+        protected Collator initialValue() {
+            return Collator.getInstance();
+        }
+    };
+
+    /** アプリケーションのラベル */
+    private final String label_;
+
+    /** アプリケーションの FQCN */
+    private final String activityFqcn_;
+
+    /** アプリケーションのパッケージ名 */
+    private final String packageName_;
+
+    /** 差分検出に使用する、アプリケーションのバージョン */
+    private final String versionStamp_;
+
+    /** ラベルの並び順のキー。比較のたびに作成しないよう、構築時に一度だけ作成する。 */
+    private final CollationKey sortKey_;
+
+    AppInfo(String label, String activityFqcn, String packageName, String versionStamp) {
+        super();
+        label_ = label;
+        sortKey_ = COLLATOR.get().getCollationKey(label);
+        activityFqcn_ = activityFqcn;
+        packageName_ = packageName;
+        versionStamp_ = versionStamp;
+    }
+
+    /**
+     * アプリケーションのラベルを返します。
+     *
+     * @return ラベル。
+     */
+    public String getLabel() {
+        return label_;
+    }
+
+    /**
+     * オリジナルのアイコンをパッケージマネージャから取得して返します。
+     *
+     * @param pm パッケージマネージャ。
+     * @return アイコン。
+     */
+    public Drawable getFullIcon(PackageManager pm) {
+        try {
+            return pm.getActivityIcon(new ComponentName(packageName_, activityFqcn_));
+        } catch (NameNotFoundException e) {
+            // スナップショット作成後にアンインストールされた
+            return pm.getDefaultActivityIcon();
+        }
+    }
+
+    /**
+     * アプリケーションの FQCN を返します。
+     *
+     * @return FQCN
+     */
+    public String getActivityFqcn() {
+        return activityFqcn_;
+    }
+
+    /**
+     * アプリケーションのパッケージ名を返します。
+     *
+     * @return パッケージ名。
+     */
+    public String getPackageName() {
+        return packageName_;
+    }
+
+    /**
+     * ロケールに従ったラベルの並び順のキーを返します。
+     */
+    CollationKey getSortKey() {
+        return sortKey_;
+    }
+
+    String getVersionStamp() {
+        return versionStamp_;
+    }
+
+    /**
+     * パッケージ名と FQCN から、アクティビティを一意に表すキーを返します。
+     */
+    String getComponentKey() {
+        return componentKey(packageName_, activityFqcn_);
+    }
+
+    static String componentKey(String packageName, String activityFqcn) {
+        return packageName + '/' + activityFqcn;
+    }
+}
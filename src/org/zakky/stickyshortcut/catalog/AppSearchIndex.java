@@ -0,0 +1,257 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.catalog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * アプリ一覧を、ラベルとパッケージ名の部分文字列で絞り込むためのインデックスです。
+ * <p>
+ * ラベルとパッケージ名を小文字にした文字列から、 1 文字・ 2 文字の n-gram ごとに、それを含むアプリの
+ * インデックスの昇順の配列(ポスティング)を作成しておきます。検索時は検索語に含まれる n-gram のうち
+ * 最も短いポスティングの候補だけを実際の文字列と照合するため、アプリの数によらず少ない照合で済みます。
+ * また、直前の検索語を前方一致で延長した検索語であれば、直前の結果の中だけを照合します。
+ * </p>
+ * <p>
+ * ポスティングは作成後に変更されませんが、直前の検索結果を保持するため、検索は 1 つのスレッド(通常は UI スレッド)から行うこと。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class AppSearchIndex {
+
+    /** ラベルとパッケージ名の区切り。検索語には現れないため、区切りをまたぐ n-gram には一致しない。 */
+    private static final char SEPARATOR = '\0';
+
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * 指定されたアプリ一覧のインデックスを作成します。アプリの数に比例した時間がかかるため、
+     * 可能であればワーカースレッドで作成してください。
+     *
+     * @param apps 対象のアプリ一覧。以降変更しないこと。
+     * @return 作成したインデックス。
+     */
+    public static AppSearchIndex build(List<AppInfo> apps) {
+        final String[] texts = new String[apps.size()];
+        final Map<Integer, IntList> unigrams = new HashMap<Integer, IntList>();
+        final Map<Integer, IntList> bigrams = new HashMap<Integer, IntList>();
+        for (int i = 0; i < texts.length; i++) {
+            final AppInfo app = apps.get(i);
+            final String text = normalize(app.getLabel()) + SEPARATOR
+                    + normalize(app.getPackageName());
+            texts[i] = text;
+            for (int j = 0; j < text.length(); j++) {
+                final char c = text.charAt(j);
+                if (c == SEPARATOR) {
+                    continue;
+                }
+                addPosting(unigrams, unigramKey(c), i);
+                if (j + 1 < text.length() && text.charAt(j + 1) != SEPARATOR) {
+                    addPosting(bigrams, bigramKey(c, text.charAt(j + 1)), i);
+                }
+            }
+        }
+        return new AppSearchIndex(apps, texts, toArrays(unigrams), toArrays(bigrams));
+    }
+
+    /**
+     * 検索対象の文字列を正規化します。大文字・小文字を区別しないよう、小文字に変換します。
+     */
+    private static String normalize(String s) {
+        return s.toLowerCase(Locale.getDefault());
+    }
+
+    private static Integer unigramKey(char c) {
+        return Integer.valueOf(c);
+    }
+
+    private static Integer bigramKey(char c1, char c2) {
+        return Integer.valueOf((c1 << 16) | c2);
+    }
+
+    private static void addPosting(Map<Integer, IntList> postings, Integer key, int index) {
+        IntList list = postings.get(key);
+        if (list == null) {
+            list = new IntList();
+            postings.put(key, list);
+        }
+        // 同じアプリに同じ n-gram が複数回現れても、ポスティングには 1 度だけ追加する。
+        list.addIfNotLast(index);
+    }
+
+    private static Map<Integer, int[]> toArrays(Map<Integer, IntList> postings) {
+        final Map<Integer, int[]> result = new HashMap<Integer, int[]>(postings.size() * 2);
+        for (Map.Entry<Integer, IntList> entry : postings.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toArray());
+        }
+        return result;
+    }
+
+    private final List<AppInfo> apps_;
+
+    /** アプリごとの、正規化したラベルとパッケージ名を {@link #SEPARATOR} でつないだ文字列。 */
+    private final String[] texts_;
+
+    private final Map<Integer, int[]> unigrams_;
+
+    private final Map<Integer, int[]> bigrams_;
+
+    /** 直前の検索語(正規化済み)。 */
+    private String lastQuery_ = "";
+
+    /** 直前の検索結果。 {@code null} であれば、すべてのアプリ。 */
+    @CheckForNull
+    private int[] lastHits_ = null;
+
+    private AppSearchIndex(List<AppInfo> apps, String[] texts, Map<Integer, int[]> unigrams,
+            Map<Integer, int[]> bigrams) {
+        super();
+        apps_ = apps;
+        texts_ = texts;
+        unigrams_ = unigrams;
+        bigrams_ = bigrams;
+    }
+
+    /**
+     * インデックスの対象のアプリ一覧を返します。
+     *
+     * @return {@link #build(List)} に渡されたアプリ一覧。
+     */
+    public List<AppInfo> getApps() {
+        return apps_;
+    }
+
+    /**
+     * ラベルかパッケージ名に検索語を含むアプリを返します。大文字・小文字は区別しません。
+     *
+     * @param query 検索語。前後の空白は無視します。
+     * @return 一致したアプリ。アプリ一覧と同じ順に並んでいます。検索語が空の場合はアプリ一覧そのもの。
+     */
+    public List<AppInfo> search(String query) {
+        final String normalized = normalize(query.trim());
+        final int[] hits = searchIndices(normalized);
+        lastQuery_ = normalized;
+        lastHits_ = hits;
+        if (hits == null) {
+            return apps_;
+        }
+        final List<AppInfo> result = new ArrayList<AppInfo>(hits.length);
+        for (int index : hits) {
+            result.add(apps_.get(index));
+        }
+        return result;
+    }
+
+    /**
+     * 検索語に一致するアプリのインデックスを返します。
+     *
+     * @return 昇順に並んだインデックス。検索語が空の場合は {@code null}。
+     */
+    @CheckForNull
+    private int[] searchIndices(String query) {
+        if (query.length() == 0) {
+            return null;
+        }
+        int[] candidates = postingsOf(query);
+        final int[] lastHits = lastHits_;
+        if (lastHits != null && query.startsWith(lastQuery_)
+                && lastHits.length < candidates.length) {
+            // 直前の検索語を延長しただけであれば、結果は直前の結果に含まれる。
+            candidates = lastHits;
+        }
+        if (query.length() <= 2 && candidates != lastHits) {
+            // n-gram そのものに一致するため、照合は不要。
+            return candidates;
+        }
+
+        final int[] hits = new int[candidates.length];
+        int count = 0;
+        for (int index : candidates) {
+            if (texts_[index].indexOf(query) >= 0) {
+                hits[count++] = index;
+            }
+        }
+        return (count == hits.length) ? hits : copyOf(hits, count);
+    }
+
+    /**
+     * 検索語に含まれる n-gram のポスティングのうち、最も短いものを返します。
+     */
+    private int[] postingsOf(String query) {
+        if (query.length() == 1) {
+            final int[] postings = unigrams_.get(unigramKey(query.charAt(0)));
+            return (postings == null) ? EMPTY : postings;
+        }
+        int[] shortest = null;
+        for (int i = 0; i + 1 < query.length(); i++) {
+            final int[] postings = bigrams_.get(bigramKey(query.charAt(i), query.charAt(i + 1)));
+            if (postings == null) {
+                return EMPTY;
+            }
+            if (shortest == null || postings.length < shortest.length) {
+                shortest = postings;
+            }
+        }
+        return (shortest == null) ? EMPTY : shortest;
+    }
+
+    /**
+     * {@code java.util.Arrays#copyOf(int[], int)} は API Level 9 からのため、代わりに使用します。
+     */
+    private static int[] copyOf(int[] src, int length) {
+        final int[] dst = new int[length];
+        System.arraycopy(src, 0, dst, 0, Math.min(src.length, length));
+        return dst;
+    }
+
+    /**
+     * インデックスの作成中にポスティングを保持する、 {@code int} の可変長配列です。
+     */
+    private static final class IntList {
+        private int[] values_ = new int[4];
+
+        private int size_ = 0;
+
+        IntList() {
+            super();
+        }
+
+        void addIfNotLast(int value) {
+            if (size_ != 0 && values_[size_ - 1] == value) {
+                return;
+            }
+            if (size_ == values_.length) {
+                values_ = copyOf(values_, size_ * 2);
+            }
+            values_[size_++] = value;
+        }
+
+        int[] toArray() {
+            return copyOf(values_, size_);
+        }
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.catalog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.zakky.stickyshortcut.StickyShortcutApplication;
+import org.zakky.stickyshortcut.icon.RenderScheduler;
+import org.zakky.stickyshortcut.icon.RenderScheduler.Priority;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * アプリ一覧のグリッドに表示するアイコンのサムネイルを、バックグラウンドで読み込むクラスです。
+ * <p>
+ * 読み込んだサムネイルはバイト数に上限のあるメモリ上の LRU と、キャッシュディレクトリ上の PNG に保持します。
+ * どちらにもない場合のみ、パッケージマネージャからアイコンを取得してサムネイルを作成します。
+ * サムネイルはグリッドの表示サイズで一度だけ縮小して作成し、不透明なアイコンは {@link Bitmap.Config#RGB_565}
+ * で保持します。オリジナルのアイコンは縮小後に参照を破棄するため、メモリ上に残りません。
+ * 読み込みは {@link #load(AppInfo, int, Callback)} で要求し、不要になった要求は {@link Request#cancel()}
+ * で取り消します。読み込みは {@link RenderScheduler} で、表示中のセルの要求を先読みより優先して実行します。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class ThumbnailLoader {
+    private static final String TAG = ThumbnailLoader.class.getSimpleName();
+
+    /** メモリ上に保持するサムネイルのバイト数の上限。 */
+    private static final int MAX_MEMORY_BYTES = 1024 * 1024;
+
+    /** キャッシュディレクトリ名。 */
+    private static final String DIR_NAME = "app_thumbnails";
+
+    /** ファイル名の各要素の区切り文字。パッケージ名やクラス名に現れない文字であること。 */
+    private static final char SEPARATOR = '~';
+
+    private static final String SUFFIX = ".png";
+
+    /** {@link RenderScheduler} に渡すキーの接頭辞。 */
+    private static final String SCHEDULER_KEY_PREFIX = "thumbnail:";
+
+    /**
+     * サムネイルの読み込みが完了したことを受け取るコールバックです。取り消された要求については、どちらのメソッドも呼び出されません。
+     */
+    public interface Callback {
+        /**
+         * サムネイルの読み込みが完了した際に、 UI スレッドから呼び出されます。
+         *
+         * @param app 対象アプリ。
+         * @param thumbnail サムネイル。共有されているため変更・ {@code recycle()} 禁止。
+         */
+        void onThumbnailLoaded(AppInfo app, Bitmap thumbnail);
+
+        /**
+         * アイコンを取得できないなどの理由でサムネイルを読み込めなかった際に、 UI スレッドから呼び出されます。
+         *
+         * @param app 対象アプリ。
+         */
+        void onThumbnailFailed(AppInfo app);
+    }
+
+    @CheckForNull
+    private static ThumbnailLoader instance_ = null;
+
+    /**
+     * プロセス全体で共有される {@link ThumbnailLoader} を返します。
+     *
+     * @param context コンテキスト。
+     * @return {@link ThumbnailLoader} のインスタンス。
+     */
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        ThumbnailLoader instance = instance_;
+        if (instance == null) {
+            instance = new ThumbnailLoader(context.getApplicationContext());
+            instance_ = instance;
+        }
+        return instance;
+    }
+
+    private final Context appContext_;
+
+    private final File dir_;
+
+    private final RenderScheduler scheduler_;
+
+    /** メモリ上のサムネイル。アクセス順に並ぶ。 {@code this} で同期してアクセスすること。 */
+    private final LinkedHashMap<String, Bitmap> memory_ = new LinkedHashMap<String, Bitmap>(32,
+            0.75f, true);
+
+    private int memoryBytes_ = 0;
+
+    private int hitCount_ = 0;
+
+    private int diskLoadCount_ = 0;
+
+    private int createCount_ = 0;
+
+    private int cancelCount_ = 0;
+
+    private ThumbnailLoader(Context appContext) {
+        super();
+        appContext_ = appContext;
+        dir_ = new File(appContext.getCacheDir(), DIR_NAME);
+        scheduler_ = StickyShortcutApplication.getRenderScheduler(appContext);
+    }
+
+    /**
+     * メモリ上に保持しているサムネイルを返します。 UI スレッドから呼び出すことができます。
+     *
+     * @param app 対象アプリ。
+     * @param size サムネイルのピクセル数。
+     * @return サムネイル。保持していない場合は {@code null}。共有されているため変更・ {@code recycle()} 禁止。
+     */
+    @CheckForNull
+    public synchronized Bitmap getCached(AppInfo app, int size) {
+        final Bitmap cached = memory_.get(keyOf(app, size));
+        if (cached != null) {
+            hitCount_++;
+        }
+        return cached;
+    }
+
+    /**
+     * サムネイルの読み込みを要求します。同じサムネイルの読み込みが実行待ち・実行中であれば、その結果を共有します。
+     *
+     * @param app 対象アプリ。
+     * @param size サムネイルのピクセル数。
+     * @param callback 完了時に呼び出されるコールバック。先読みのみが目的であれば {@code null}。
+     *            コールバックを指定した要求は表示中のセルのものとみなし、先読みより優先します。
+     * @return 要求。
+     */
+    public Request load(final AppInfo app, final int size, @CheckForNull final Callback callback) {
+        final String key = keyOf(app, size);
+        final RenderScheduler.Ticket ticket = scheduler_.submit(SCHEDULER_KEY_PREFIX + key,
+                (callback == null) ? Priority.SPECULATIVE : Priority.VISIBLE,
+                new Callable<Bitmap>() {
+                    @Override
+                    public Bitmap call() {
+                        return execute(key, app, size);
+                    }
+                }, (callback == null) ? null : new RenderScheduler.Callback() {
+                    @Override
+                    public void onRendered(Bitmap thumbnail) {
+                        callback.onThumbnailLoaded(app, thumbnail);
+                    }
+
+                    @Override
+                    public void onFailed() {
+                        callback.onThumbnailFailed(app);
+                    }
+                });
+        return new Request(ticket);
+    }
+
+    /**
+     * 指定されたパッケージのサムネイルをすべて破棄します。
+     * <p>
+     * ファイルの削除を伴うため、 UI スレッドから呼び出さないでください。
+     * </p>
+     *
+     * @param packageName パッケージ名。
+     */
+    public void invalidatePackage(String packageName) {
+        final String prefix = packageName + SEPARATOR;
+        synchronized (this) {
+            final Iterator<Map.Entry<String, Bitmap>> it = memory_.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<String, Bitmap> entry = it.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    memoryBytes_ -= sizeOf(entry.getValue());
+                    it.remove();
+                }
+            }
+        }
+        // ファイルの走査と削除はロックの外で行い、他のサムネイルの読み込みを待たせない。
+        deleteFiles(prefix, null);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ThumbnailLoader[memory=" + memory_.size() + "/" + memoryBytes_ + "B, hit="
+                + hitCount_ + ", disk=" + diskLoadCount_ + ", create=" + createCount_
+                + ", cancel=" + cancelCount_ + "]";
+    }
+
+    /**
+     * {@link RenderScheduler} のワーカースレッドで、サムネイルを読み込みます。
+     */
+    private Bitmap execute(String key, AppInfo app, int size) {
+        Bitmap thumbnail;
+        synchronized (this) {
+            thumbnail = memory_.get(key);
+        }
+        if (thumbnail == null) {
+            thumbnail = loadOrCreate(key, app, size);
+        }
+        synchronized (this) {
+            putToMemory(key, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    private Bitmap loadOrCreate(String key, AppInfo app, int size) {
+        final File file = new File(dir_, key + SUFFIX);
+        if (file.isFile()) {
+            final Bitmap loaded = BitmapFactory.decodeFile(file.getPath());
+            if (loaded != null) {
+                synchronized (this) {
+                    diskLoadCount_++;
+                }
+                return compact(loaded);
+            }
+            file.delete();
+        }
+
+        final Bitmap created = compact(createThumbnail(app.getFullIcon(appContext_
+                .getPackageManager()), size));
+        synchronized (this) {
+            createCount_++;
+        }
+        // 同じアクティビティの古いバージョンのサムネイルを削除する。現在のバージョンのものは、他の大きさも残す。
+        final String activityPrefix = app.getPackageName() + SEPARATOR + app.getActivityFqcn()
+                + SEPARATOR;
+        deleteFiles(activityPrefix, activityPrefix + app.getVersionStamp() + SEPARATOR);
+        write(file, created);
+        return created;
+    }
+
+    private void write(File file, Bitmap thumbnail) {
+        if (!dir_.isDirectory() && !dir_.mkdirs()) {
+            Log.w(TAG, "failed to create thumbnail directory: " + dir_);
+            return;
+        }
+        final File tmp = new File(file.getPath() + ".tmp");
+        try {
+            final OutputStream os = new FileOutputStream(tmp);
+            try {
+                thumbnail.compress(Bitmap.CompressFormat.PNG, 100, os);
+            } finally {
+                os.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write thumbnail: " + file, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * 名前が指定された接頭辞で始まるサムネイルのファイルを削除します。ディレクトリの走査を伴うため、ロックの外で呼び出すこと。
+     *
+     * @param prefix 削除するファイル名の接頭辞。
+     * @param keepPrefix 削除せずに残すファイル名の接頭辞。 {@code null} の場合はすべて削除する。
+     */
+    private void deleteFiles(String prefix, @CheckForNull String keepPrefix) {
+        final File[] files = dir_.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.startsWith(prefix) && (keepPrefix == null || !name.startsWith(keepPrefix))) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * オリジナルのアイコンを縮小したサムネイルを作成します。戻り値はオリジナルのアイコンとビットマップを共有しません。
+     */
+    private static Bitmap createThumbnail(Drawable icon, int size) {
+        if (icon instanceof BitmapDrawable) {
+            final Bitmap source = ((BitmapDrawable) icon).getBitmap();
+            if (source != null) {
+                if (source.getWidth() == size && source.getHeight() == size) {
+                    return source.copy(Bitmap.Config.ARGB_8888, false);
+                }
+                // フィルタをかけて一度だけ縮小しておけば、描画のたびに拡大縮小する必要はない。
+                final Bitmap scaled = Bitmap.createScaledBitmap(source, size, size, true);
+                return (scaled == source) ? source.copy(Bitmap.Config.ARGB_8888, false) : scaled;
+            }
+        }
+        final Bitmap thumbnail = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        final Rect oldBounds = icon.copyBounds();
+        icon.setBounds(0, 0, size, size);
+        icon.draw(new Canvas(thumbnail));
+        icon.setBounds(oldBounds.left, oldBounds.top, oldBounds.right, oldBounds.bottom);
+        return thumbnail;
+    }
+
+    /**
+     * 完全に不透明なサムネイルであれば、 1 ピクセル 2 バイトの {@link Bitmap.Config#RGB_565} に変換します。
+     *
+     * @param thumbnail サムネイル。変換した場合は {@code recycle()} します。
+     * @return 変換後のサムネイル。変換しなかった場合は {@code thumbnail} そのもの。
+     */
+    private static Bitmap compact(Bitmap thumbnail) {
+        if (thumbnail.getConfig() == Bitmap.Config.RGB_565) {
+            return thumbnail;
+        }
+        final int width = thumbnail.getWidth();
+        final int height = thumbnail.getHeight();
+        final int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            thumbnail.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                if ((row[x] >>> 24) != 0xFF) {
+                    return thumbnail;
+                }
+            }
+        }
+        final Bitmap compacted = thumbnail.copy(Bitmap.Config.RGB_565, false);
+        if (compacted == null) {
+            return thumbnail;
+        }
+        thumbnail.recycle();
+        return compacted;
+    }
+
+    /*
+     * 以下のメソッドは、 this で同期した状態で呼び出すこと。
+     */
+
+    private void putToMemory(String key, Bitmap thumbnail) {
+        final Bitmap old = memory_.put(key, thumbnail);
+        if (old != null) {
+            memoryBytes_ -= sizeOf(old);
+        }
+        memoryBytes_ += sizeOf(thumbnail);
+
+        final Iterator<Map.Entry<String, Bitmap>> it = memory_.entrySet().iterator();
+        while (memoryBytes_ > MAX_MEMORY_BYTES && it.hasNext()) {
+            final Map.Entry<String, Bitmap> eldest = it.next();
+            memoryBytes_ -= sizeOf(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    private static String keyOf(AppInfo app, int size) {
+        return app.getPackageName() + SEPARATOR + app.getActivityFqcn() + SEPARATOR
+                + app.getVersionStamp() + SEPARATOR + size;
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * サムネイルの読み込み要求です。
+     *
+     * @author zaki
+     */
+    public final class Request {
+        private final RenderScheduler.Ticket ticket_;
+
+        Request(RenderScheduler.Ticket ticket) {
+            super();
+            ticket_ = ticket;
+        }
+
+        /**
+         * 要求を取り消します。同じサムネイルの他の要求がなく実行待ちであれば実行されず、
+         * 実行中であれば完了してもコールバックは呼び出されません。
+         */
+        public void cancel() {
+            if (ticket_.isCancelled()) {
+                return;
+            }
+            ticket_.cancel();
+            synchronized (ThumbnailLoader.this) {
+                cancelCount_++;
+            }
+        }
+
+        /**
+         * @return 取り消されていれば {@code true}。
+         */
+        public boolean isCancelled() {
+            return ticket_.isCancelled();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.icon;
+
+import java.util.Arrays;
+
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * {@code int[]} 上の乗算済み ARGB ピクセルに対して、レイヤーを src-over で重ねていく合成エンジンです。
+ * <p>
+ * Android のグラフィックスクラスに依存しないため、通常の JVM 上でも同じ結果が得られます。
+ * 内部バッファは再利用されるため、バッファが十分な大きさになった後は合成処理でオブジェクトを生成しません。
+ * </p>
+ * <p>
+ * インスタンスはスレッドセーフではありません。スレッドごとに別のインスタンスを使用してください。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class ArgbCompositor {
+
+    /** 合成先のピクセル。乗算済み ARGB。 */
+    private int[] pixels_ = new int[0];
+
+    private int width_ = 0;
+
+    private int height_ = 0;
+
+    /**
+     * 合成先を指定された大きさの透明な画像で初期化します。
+     *
+     * @param width 合成先の幅。
+     * @param height 合成先の高さ。
+     */
+    public void reset(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid size. width=" + width + ", height="
+                    + height);
+        }
+        final int size = width * height;
+        if (pixels_.length < size) {
+            pixels_ = new int[size];
+        }
+        Arrays.fill(pixels_, 0, size, 0);
+        width_ = width;
+        height_ = height;
+    }
+
+    /**
+     * 合成結果のピクセルを返します。先頭から {@code getWidth() * getHeight()} 個が有効です。
+     * <p>
+     * 返される配列は内部バッファそのものです。次に {@link #reset(int, int)} するまで有効です。
+     * </p>
+     *
+     * @return 乗算済み ARGB のピクセル。
+     */
+    public int[] getPixels() {
+        return pixels_;
+    }
+
+    public int getWidth() {
+        return width_;
+    }
+
+    public int getHeight() {
+        return height_;
+    }
+
+    /**
+     * 乗算済み ARGB の画像を、等倍で指定位置に重ねます。
+     *
+     * @param src 重ねる画像のピクセル。乗算済み ARGB。
+     * @param srcWidth 重ねる画像の幅。
+     * @param srcHeight 重ねる画像の高さ。
+     * @param left 重ねる位置の X 座標。
+     * @param top 重ねる位置の Y 座標。
+     */
+    public void drawOver(int[] src, int srcWidth, int srcHeight, int left, int top) {
+        final int x0 = Math.max(0, left);
+        final int y0 = Math.max(0, top);
+        final int x1 = Math.min(width_, left + srcWidth);
+        final int y1 = Math.min(height_, top + srcHeight);
+
+        final int[] dst = pixels_;
+        for (int y = y0; y < y1; y++) {
+            int d = y * width_ + x0;
+            int s = (y - top) * srcWidth + (x0 - left);
+            for (int x = x0; x < x1; x++, d++, s++) {
+                dst[d] = srcOver(src[s], dst[d]);
+            }
+        }
+    }
+
+    /**
+     * 乗算済み ARGB の画像を、バイリニア補間で拡大縮小して指定位置に重ねます。
+     *
+     * @param src 重ねる画像のピクセル。乗算済み ARGB。
+     * @param srcWidth 重ねる画像の幅。
+     * @param srcHeight 重ねる画像の高さ。
+     * @param scale 拡大率。
+     * @param left 重ねる位置の X 座標。
+     * @param top 重ねる位置の Y 座標。
+     */
+    public void drawScaledOver(int[] src, int srcWidth, int srcHeight, float scale, float left,
+            float top) {
+        if (scale <= 0.0f) {
+            throw new IllegalArgumentException("scale must be positive: " + scale);
+        }
+        if (scale == 1.0f && left == (int) left && top == (int) top) {
+            drawOver(src, srcWidth, srcHeight, (int) left, (int) top);
+            return;
+        }
+
+        final int x0 = Math.max(0, (int) Math.floor(left));
+        final int y0 = Math.max(0, (int) Math.floor(top));
+        final int x1 = Math.min(width_, (int) Math.ceil(left + srcWidth * scale));
+        final int y1 = Math.min(height_, (int) Math.ceil(top + srcHeight * scale));
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+
+        // 合成先のピクセル中心を元画像の座標に逆変換する。 16.16 の固定小数点で扱う。
+        final int step = (int) (65536.0f / scale);
+        final int sxStart = (int) (((x0 + 0.5f - left) / scale - 0.5f) * 65536.0f);
+
+        final int[] dst = pixels_;
+        for (int y = y0; y < y1; y++) {
+            final int sy = (int) (((y + 0.5f - top) / scale - 0.5f) * 65536.0f);
+            final int iy = sy >> 16;
+            final int fy = (sy >> 8) & 0xFF;
+
+            int sx = sxStart;
+            int d = y * width_ + x0;
+            for (int x = x0; x < x1; x++, d++, sx += step) {
+                final int ix = sx >> 16;
+                final int fx = (sx >> 8) & 0xFF;
+
+                final int p00 = sample(src, srcWidth, srcHeight, ix, iy);
+                final int p10 = sample(src, srcWidth, srcHeight, ix + 1, iy);
+                final int p01 = sample(src, srcWidth, srcHeight, ix, iy + 1);
+                final int p11 = sample(src, srcWidth, srcHeight, ix + 1, iy + 1);
+                final int c = lerp(lerp(p00, p10, fx), lerp(p01, p11, fx), fy);
+                if (c != 0) {
+                    dst[d] = srcOver(c, dst[d]);
+                }
+            }
+        }
+    }
+
+    /**
+     * マスクのアルファ値を使い、行ごとに指定された色で着色して合成先の左上に等倍で重ねます。
+     *
+     * @param mask マスクのピクセル。上位 8 ビットのアルファ値のみを使用します。
+     * @param maskWidth マスクの幅。
+     * @param maskHeight マスクの高さ。
+     * @param rowColors 行ごとの色。乗算済みでない ARGB。 {@code maskHeight} 個以上の要素が必要です。
+     */
+    public void drawMaskOver(int[] mask, int maskWidth, int maskHeight, int[] rowColors) {
+        final int x1 = Math.min(width_, maskWidth);
+        final int y1 = Math.min(height_, maskHeight);
+
+        final int[] dst = pixels_;
+        for (int y = 0; y < y1; y++) {
+            final int color = rowColors[y];
+            final int ca = color >>> 24;
+            final int cr = (color >> 16) & 0xFF;
+            final int cg = (color >> 8) & 0xFF;
+            final int cb = color & 0xFF;
+
+            int d = y * width_;
+            int s = y * maskWidth;
+            for (int x = 0; x < x1; x++, d++, s++) {
+                final int ma = mask[s] >>> 24;
+                if (ma == 0) {
+                    continue;
+                }
+                final int a = div255(ca * ma);
+                final int c = (a << 24) | (div255(cr * a) << 16) | (div255(cg * a) << 8)
+                        | div255(cb * a);
+                dst[d] = srcOver(c, dst[d]);
+            }
+        }
+    }
+
+    /**
+     * 乗算済みでない ARGB のピクセルを、乗算済み ARGB に変換します。
+     *
+     * @param pixels 変換対象。内容は上書きされます。
+     * @param offset 変換対象の先頭インデックス。
+     * @param count 変換するピクセル数。
+     */
+    public static void premultiply(int[] pixels, int offset, int count) {
+        final int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            final int p = pixels[i];
+            final int a = p >>> 24;
+            if (a == 0xFF) {
+                continue;
+            }
+            if (a == 0) {
+                pixels[i] = 0;
+                continue;
+            }
+            final int r = div255(((p >> 16) & 0xFF) * a);
+            final int g = div255(((p >> 8) & 0xFF) * a);
+            final int b = div255((p & 0xFF) * a);
+            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    /**
+     * 乗算済み ARGB のピクセルを、乗算済みでない ARGB に変換します。
+     *
+     * @param pixels 変換対象。内容は上書きされます。
+     * @param offset 変換対象の先頭インデックス。
+     * @param count 変換するピクセル数。
+     */
+    public static void unpremultiply(int[] pixels, int offset, int count) {
+        final int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            final int p = pixels[i];
+            final int a = p >>> 24;
+            if (a == 0xFF || a == 0) {
+                continue;
+            }
+            final int half = a >> 1;
+            final int r = Math.min(0xFF, (((p >> 16) & 0xFF) * 0xFF + half) / a);
+            final int g = Math.min(0xFF, (((p >> 8) & 0xFF) * 0xFF + half) / a);
+            final int b = Math.min(0xFF, ((p & 0xFF) * 0xFF + half) / a);
+            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    /**
+     * 乗算済み ARGB の {@code src} を {@code dst} の上に重ねた結果を返します。
+     */
+    static int srcOver(int src, int dst) {
+        final int sa = src >>> 24;
+        if (sa == 0xFF) {
+            return src;
+        }
+        if (sa == 0) {
+            return dst;
+        }
+        final int inv = 0xFF - sa;
+        final int a = sa + div255((dst >>> 24) * inv);
+        final int r = ((src >> 16) & 0xFF) + div255(((dst >> 16) & 0xFF) * inv);
+        final int g = ((src >> 8) & 0xFF) + div255(((dst >> 8) & 0xFF) * inv);
+        final int b = (src & 0xFF) + div255((dst & 0xFF) * inv);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * 画像範囲外を透明として、指定座標のピクセルを返します。
+     */
+    private static int sample(int[] src, int width, int height, int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return 0;
+        }
+        return src[y * width + x];
+    }
+
+    /**
+     * 2 つのピクセルをチャネルごとに線形補間します。
+     *
+     * @param f {@code p1} の重み。 {@code 0} から {@code 255}。
+     */
+    private static int lerp(int p0, int p1, int f) {
+        if (p0 == p1 || f == 0) {
+            return p0;
+        }
+        final int a = lerpChannel(p0 >>> 24, p1 >>> 24, f);
+        final int r = lerpChannel((p0 >> 16) & 0xFF, (p1 >> 16) & 0xFF, f);
+        final int g = lerpChannel((p0 >> 8) & 0xFF, (p1 >> 8) & 0xFF, f);
+        final int b = lerpChannel(p0 & 0xFF, p1 & 0xFF, f);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static int lerpChannel(int c0, int c1, int f) {
+        return c0 + (((c1 - c0) * f) >> 8);
+    }
+
+    /**
+     * {@code v / 255} を丸めて返します。 {@code 0 <= v <= 255 * 255}。
+     */
+    static int div255(int v) {
+        final int t = v + 128;
+        return (t + (t >> 8)) >> 8;
+    }
+}
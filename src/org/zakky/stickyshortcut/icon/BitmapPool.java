@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.icon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.graphics.Bitmap;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * ショートカットアイコンの作成先となる {@code ARGB_8888} の {@link Bitmap} を、サイズごとに再利用するためのプールです。
+ * <p>
+ * {@link #obtain(int, int)} で取得した {@link Bitmap} が不要になったら {@link #release(Bitmap)}
+ * で返却してください。プールに保持する {@link Bitmap} のバイト数には上限があり、上限を超える分は返却時に
+ * {@link Bitmap#recycle()} します。
+ * </p>
+ * <p>
+ * {@link #release(Bitmap)} が受け付けるのは、このプールが払い出してまだ返却されていない {@link Bitmap} だけです。
+ * ディスクからデコードしたものなど、それ以外の {@link Bitmap} は呼び出し元の他でも使われている可能性があるため、
+ * 渡されてもプールにも入れず {@code recycle()} もしません。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class BitmapPool {
+
+    /** プールに保持する {@link Bitmap} のバイト数の上限。 */
+    private static final int MAX_POOLED_BYTES = 256 * 1024;
+
+    private static final BitmapPool INSTANCE = new BitmapPool(MAX_POOLED_BYTES);
+
+    /**
+     * プロセス全体で共有される {@link BitmapPool} を返します。
+     *
+     * @return {@link BitmapPool} のインスタンス。
+     */
+    public static BitmapPool getInstance() {
+        return INSTANCE;
+    }
+
+    private final int maxPooledBytes_;
+
+    /** {@code (width << 16) | height} をキーとする、未使用の {@link Bitmap} のリスト。 */
+    private final Map<Integer, List<Bitmap>> buckets_ = new HashMap<Integer, List<Bitmap>>();
+
+    /** プールが保持している未使用の {@link Bitmap} のバイト数の合計。 */
+    private int pooledBytes_ = 0;
+
+    /**
+     * {@link #obtain(int, int)} で払い出し、まだ返却されていない {@link Bitmap}。返却されないまま参照されなくなったものは自動的に外れる。
+     */
+    private final Map<Bitmap, Boolean> issued_ = new WeakHashMap<Bitmap, Boolean>();
+
+    /** {@link #obtain(int, int)} で払い出され、まだ返却されていない {@link Bitmap} のバイト数の合計。 */
+    private long outstandingBytes_ = 0L;
+
+    private int obtainCount_ = 0;
+
+    private int reuseCount_ = 0;
+
+    private int releaseCount_ = 0;
+
+    private int discardCount_ = 0;
+
+    /** 払い出していない {@link Bitmap} の返却を無視した回数。 */
+    private int foreignCount_ = 0;
+
+    BitmapPool(int maxPooledBytes) {
+        super();
+        maxPooledBytes_ = maxPooledBytes;
+    }
+
+    /**
+     * 指定されたサイズの、透明で初期化された {@code ARGB_8888} の {@link Bitmap} を返します。
+     * プールに同じサイズのものがあれば再利用し、なければ新たに作成します。
+     *
+     * @param width 幅。
+     * @param height 高さ。
+     * @return 変更可能な {@link Bitmap}。
+     */
+    public Bitmap obtain(int width, int height) {
+        Bitmap bitmap = null;
+        synchronized (this) {
+            obtainCount_++;
+            final List<Bitmap> bucket = buckets_.get(bucketKey(width, height));
+            if (bucket != null && !bucket.isEmpty()) {
+                bitmap = bucket.remove(bucket.size() - 1);
+                pooledBytes_ -= sizeOf(bitmap);
+                reuseCount_++;
+            }
+        }
+
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        } else {
+            bitmap.eraseColor(0);
+        }
+
+        synchronized (this) {
+            outstandingBytes_ += sizeOf(bitmap);
+            issued_.put(bitmap, Boolean.TRUE);
+        }
+        return bitmap;
+    }
+
+    /**
+     * {@link #obtain(int, int)} で取得した不要になった {@link Bitmap} をプールに返却します。返却後は呼び出し側で使用しないでください。
+     * <p>
+     * 他から参照されている可能性のある {@link Bitmap} (キャッシュに登録されているものなど)は返却しないでください。
+     * このプールが払い出したものでない場合や返却済みの場合は、何もしません。
+     * </p>
+     *
+     * @param bitmap 返却する {@link Bitmap}。
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        final int size = sizeOf(bitmap);
+        synchronized (this) {
+            if (issued_.remove(bitmap) == null) {
+                foreignCount_++;
+                return;
+            }
+            releaseCount_++;
+            outstandingBytes_ = Math.max(0L, outstandingBytes_ - size);
+            if (pooledBytes_ + size <= maxPooledBytes_) {
+                final Integer key = bucketKey(bitmap.getWidth(), bitmap.getHeight());
+                List<Bitmap> bucket = buckets_.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<Bitmap>();
+                    buckets_.put(key, bucket);
+                }
+                bucket.add(bitmap);
+                pooledBytes_ += size;
+                return;
+            }
+            discardCount_++;
+        }
+        bitmap.recycle();
+    }
+
+    /**
+     * プールが保持している未使用の {@link Bitmap} をすべて破棄します。
+     */
+    public void clear() {
+        final List<Bitmap> discarded = new ArrayList<Bitmap>();
+        synchronized (this) {
+            final Iterator<List<Bitmap>> it = buckets_.values().iterator();
+            while (it.hasNext()) {
+                discarded.addAll(it.next());
+                it.remove();
+            }
+            pooledBytes_ = 0;
+        }
+        for (Bitmap bitmap : discarded) {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * @return {@link #obtain(int, int)} のうち、プールの {@link Bitmap} を再利用できた割合。 {@code 0.0}
+     *         から {@code 1.0}。
+     */
+    public synchronized float getReuseRate() {
+        if (obtainCount_ == 0) {
+            return 0.0f;
+        }
+        return (float) reuseCount_ / (float) obtainCount_;
+    }
+
+    /**
+     * @return 払い出されてまだ返却されていない {@link Bitmap} のバイト数の合計。
+     */
+    public synchronized long getOutstandingBytes() {
+        return outstandingBytes_;
+    }
+
+    /**
+     * @return プールが保持している未使用の {@link Bitmap} のバイト数の合計。
+     */
+    public synchronized int getPooledBytes() {
+        return pooledBytes_;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[pooled=" + pooledBytes_ + "/" + maxPooledBytes_ + "B, outstanding="
+                + outstandingBytes_ + "B, obtain=" + obtainCount_ + ", reuse=" + reuseCount_
+                + ", release=" + releaseCount_ + ", discard=" + discardCount_ + ", foreign="
+                + foreignCount_ + "]";
+    }
+
+    private static Integer bucketKey(int width, int height) {
+        return Integer.valueOf((width << 16) | (height & 0xFFFF));
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
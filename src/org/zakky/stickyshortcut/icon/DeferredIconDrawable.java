@@ -0,0 +1,136 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.icon;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * 作成中のショートカットアイコンを表す {@link Drawable} です。
+ * <p>
+ * アイコンが作成されるまではプレースホルダ(アプリのアイコン)を半透明で描画し、
+ * {@link #setIcon(Bitmap)} で作成済みのアイコンがセットされるとそちらに切り替えます。 UI
+ * スレッドからのみアクセスしてください。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class DeferredIconDrawable extends Drawable {
+
+    /** プレースホルダを描画する際のアルファ値。 */
+    private static final int PLACEHOLDER_ALPHA = 0x60;
+
+    @CheckForNull
+    private final Bitmap placeholder_;
+
+    /** 幅・高さのピクセル数。 */
+    private final int size_;
+
+    private final Paint placeholderPaint_;
+
+    private final Paint iconPaint_;
+
+    private final Rect src_ = new Rect();
+
+    @CheckForNull
+    private Bitmap icon_ = null;
+
+    /**
+     * 指定されたプレースホルダを表示する {@link DeferredIconDrawable} を構築します。
+     *
+     * @param placeholder アイコン作成完了までに表示するプレースホルダ。通常はグリッドのサムネイル。
+     *            {@code null} の場合は、アイコン作成完了まで何も描画しません。
+     * @param size 幅・高さのピクセル数。作成されるアイコンの大きさ。
+     */
+    public DeferredIconDrawable(@CheckForNull Bitmap placeholder, int size) {
+        super();
+        placeholder_ = placeholder;
+        size_ = size;
+        placeholderPaint_ = new Paint(Paint.FILTER_BITMAP_FLAG);
+        placeholderPaint_.setAlpha(PLACEHOLDER_ALPHA);
+        iconPaint_ = new Paint(Paint.FILTER_BITMAP_FLAG);
+    }
+
+    /**
+     * 作成済みのアイコンをセットして再描画を要求します。
+     *
+     * @param icon 作成済みのアイコン。
+     */
+    public void setIcon(Bitmap icon) {
+        icon_ = icon;
+        invalidateSelf();
+    }
+
+    /**
+     * @return セット済みのアイコン。まだセットされていない場合は {@code null}。
+     */
+    @CheckForNull
+    public Bitmap getIcon() {
+        return icon_;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        final Bitmap icon = icon_;
+        final Bitmap bitmap = (icon == null) ? placeholder_ : icon;
+        if (bitmap == null) {
+            return;
+        }
+        final Paint paint = (icon == null) ? placeholderPaint_ : iconPaint_;
+
+        src_.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        canvas.drawBitmap(bitmap, src_, getBounds(), paint);
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return size_;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return size_;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        iconPaint_.setAlpha(alpha);
+        placeholderPaint_.setAlpha(alpha * PLACEHOLDER_ALPHA / 0xFF);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(@CheckForNull ColorFilter cf) {
+        iconPaint_.setColorFilter(cf);
+        placeholderPaint_.setColorFilter(cf);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.icon;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * アプリアイコンを縮小して描画するための、ミップマップの連鎖です。
+ * <p>
+ * 元画像を 2x2 ピクセルの平均(ボックスフィルタ)で幅・高さとも半分に縮小した画像を、必要になった段階まで順に作成して保持します。
+ * 描画時は、目的の大きさ以上で最も小さい段を選び、残りの拡大縮小をバイリニア補間で行います。
+ * 最後の補間での縮小は 2 倍未満に収まるため、大きな元画像を大きく縮小してもピクセルが間引かれません。
+ * </p>
+ * <p>
+ * 1 つのオリジナルアイコンから複数スタイルのアイコンを作成する場合は、同じインスタンスを使うことで
+ * 縮小した画像を共有できます。複数のスレッドから同時に使用できます。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+final class IconMipChain {
+
+    /** 作成済みの段。先頭は元画像。 {@code this} で同期してアクセスすること。 */
+    private final List<Bitmap> levels_ = new ArrayList<Bitmap>(4);
+
+    /** 最後の段のピクセル。乗算済み ARGB。次の段を作成する際に使用する。 {@code this} で同期してアクセスすること。 */
+    @CheckForNull
+    private int[] lastPixels_ = null;
+
+    /**
+     * 指定された画像を元画像とするミップマップの連鎖を構築します。縮小した段はまだ作成しません。
+     *
+     * @param source 元画像。変更しないこと。
+     */
+    IconMipChain(Bitmap source) {
+        super();
+        levels_.add(source);
+    }
+
+    /**
+     * 元画像を指定された拡大率で拡大縮小して、指定された位置に描画します。
+     *
+     * @param canvas 描画先。
+     * @param scale 元画像に対する拡大率。
+     * @param left 描画する位置の X 座標。
+     * @param top 描画する位置の Y 座標。
+     */
+    void draw(Canvas canvas, float scale, float left, float top) {
+        final Bitmap level = levelFor(scale);
+        final float levelScale = scale * getSourceWidth() / level.getWidth();
+        final Matrix matrix = new Matrix();
+        matrix.postScale(levelScale, levelScale);
+        matrix.postTranslate(left, top);
+        canvas.drawBitmap(level, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+    }
+
+    /**
+     * 元画像を指定された拡大率で縮小する際に使用する段を返します。必要であれば作成します。
+     *
+     * @param scale 元画像に対する拡大率。
+     * @return 縮小後の幅以上で最も小さい段。拡大する場合は元画像。共有されているため変更・ {@code recycle()} 禁止。
+     */
+    synchronized Bitmap levelFor(float scale) {
+        final float targetWidth = getSourceWidth() * scale;
+        final float targetHeight = levels_.get(0).getHeight() * scale;
+        int index = 0;
+        while (true) {
+            final Bitmap level = levels_.get(index);
+            final int nextWidth = level.getWidth() / 2;
+            final int nextHeight = level.getHeight() / 2;
+            if (nextWidth < targetWidth || nextHeight < targetHeight || nextWidth == 0
+                    || nextHeight == 0) {
+                return level;
+            }
+            index++;
+            if (index == levels_.size()) {
+                levels_.add(buildNextLevel(level));
+            }
+        }
+    }
+
+    /**
+     * @return 作成済みの段の数。元画像を含みます。
+     */
+    synchronized int getLevelCount() {
+        return levels_.size();
+    }
+
+    /**
+     * 作成済みの縮小した段を {@link Bitmap#recycle()} して破棄します。元画像は破棄しません。
+     * 以降に縮小した段が必要になった場合は作成し直します。描画中に呼び出さないこと。
+     */
+    synchronized void recycle() {
+        while (levels_.size() > 1) {
+            levels_.remove(levels_.size() - 1).recycle();
+        }
+        lastPixels_ = null;
+    }
+
+    private int getSourceWidth() {
+        return levels_.get(0).getWidth();
+    }
+
+    /**
+     * 指定された段を 2x2 ピクセルの平均で縮小した段を作成します。 {@code this} で同期した状態で呼び出すこと。
+     */
+    private Bitmap buildNextLevel(Bitmap level) {
+        final int width = level.getWidth();
+        final int height = level.getHeight();
+        int[] src = lastPixels_;
+        if (src == null) {
+            src = new int[width * height];
+            level.getPixels(src, 0, width, 0, 0, width, height);
+            ArgbCompositor.premultiply(src, 0, src.length);
+        }
+
+        final int nextWidth = width / 2;
+        final int nextHeight = height / 2;
+        final int[] dst = new int[nextWidth * nextHeight];
+        for (int y = 0; y < nextHeight; y++) {
+            final int row0 = (y * 2) * width;
+            final int row1 = row0 + width;
+            for (int x = 0; x < nextWidth; x++) {
+                final int i = row0 + x * 2;
+                final int j = row1 + x * 2;
+                dst[y * nextWidth + x] = average(src[i], src[i + 1], src[j], src[j + 1]);
+            }
+        }
+        lastPixels_ = dst;
+
+        final int[] pixels = new int[dst.length];
+        System.arraycopy(dst, 0, pixels, 0, dst.length);
+        ArgbCompositor.unpremultiply(pixels, 0, pixels.length);
+        final Bitmap next = Bitmap.createBitmap(nextWidth, nextHeight, Bitmap.Config.ARGB_8888);
+        next.setPixels(pixels, 0, nextWidth, 0, 0, nextWidth, nextHeight);
+        return next;
+    }
+
+    /**
+     * 乗算済み ARGB の 4 ピクセルの、チャネルごとの平均を返します。
+     */
+    private static int average(int p0, int p1, int p2, int p3) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            final int sum = ((p0 >>> shift) & 0xFF) + ((p1 >>> shift) & 0xFF)
+                    + ((p2 >>> shift) & 0xFF) + ((p3 >>> shift) & 0xFF);
+            result |= ((sum + 2) >> 2) << shift;
+        }
+        return result;
+    }
+}
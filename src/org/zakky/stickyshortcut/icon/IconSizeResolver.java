@@ -0,0 +1,188 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.icon;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.util.DisplayMetrics;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * ホームアプリが表示するアイコンのピクセル数を求めるクラスです。
+ * <p>
+ * ホームアプリは画面密度のバケット(ldpi, mdpi, hdpi, ...)ごとに用意されたアイコンを表示するため、
+ * 48dp をバケットの密度で解決したものをアイコンの大きさとします。特大画面(タブレット)のホームアプリは
+ * 1 段上のバケットのアイコンを表示するため、その大きさ(96〜192 ピクセル)とします。
+ * 結果は画面密度と画面サイズの組ごとに記憶し、構成の変更でそれらが変わった場合のみ求め直します。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class IconSizeResolver {
+
+    /** mdpi でのアイコンのピクセル数。 */
+    private static final int BASELINE_ICON_SIZE = 48;
+
+    /**
+     * 画面密度のバケットの dpi 。昇順。 API Level 4 では ldpi, mdpi, hdpi しか定義されていないため、
+     * それより上は値を直接記述する。
+     */
+    private static final int[] DENSITY_BUCKETS = {
+            DisplayMetrics.DENSITY_LOW, DisplayMetrics.DENSITY_MEDIUM,
+            DisplayMetrics.DENSITY_HIGH, 320 /* xhdpi */, 480 /* xxhdpi */, 640 /* xxxhdpi */
+    };
+
+    /** {@code Configuration.SCREENLAYOUT_SIZE_XLARGE} 。 API Level 9 で追加されたため値を直接記述する。 */
+    private static final int SCREENLAYOUT_SIZE_XLARGE = 4;
+
+    /**
+     * {@link DisplayMetrics#densityDpi} と {@link Configuration#screenLayout} が使用できる場合に {@code true}。
+     * どちらも API Level 4 からのため、 1.5 では mdpi ・通常の画面サイズとみなす。
+     */
+    private static final boolean HAS_SCREEN_INFO = getSdkVersion() >= 4;
+
+    /** 前回求めた際の画面密度(dpi)。 {@code IconSizeResolver.class} で同期してアクセスすること。 */
+    private static int resolvedDensityDpi_ = 0;
+
+    /** 前回求めた際の画面サイズの区分。 {@code IconSizeResolver.class} で同期してアクセスすること。 */
+    private static int resolvedScreenSize_ = 0;
+
+    /** 前回求めたアイコンのピクセル数。 {@code IconSizeResolver.class} で同期してアクセスすること。 */
+    private static int resolvedSize_ = 0;
+
+    /**
+     * ホームアプリが表示するアイコンのピクセル数を返します。
+     *
+     * @param context コンテキスト。
+     * @return アイコン画像のいっぺんのピクセル数。
+     */
+    public static synchronized int getLauncherIconSize(Context context) {
+        final Resources res = context.getResources();
+        final int densityDpi;
+        final int screenSize;
+        if (HAS_SCREEN_INFO) {
+            densityDpi = ScreenInfo.getDensityDpi(res);
+            screenSize = ScreenInfo.getScreenSize(res);
+        } else {
+            densityDpi = DisplayMetrics.DENSITY_MEDIUM;
+            screenSize = Configuration.SCREENLAYOUT_SIZE_NORMAL;
+        }
+        if (resolvedSize_ != 0 && resolvedDensityDpi_ == densityDpi
+                && resolvedScreenSize_ == screenSize) {
+            return resolvedSize_;
+        }
+
+        int bucket = bucketIndexOf(densityDpi);
+        if (screenSize >= SCREENLAYOUT_SIZE_XLARGE && bucket + 1 < DENSITY_BUCKETS.length) {
+            bucket++;
+        }
+        final int size = (BASELINE_ICON_SIZE * DENSITY_BUCKETS[bucket]
+                + DisplayMetrics.DENSITY_MEDIUM / 2) / DisplayMetrics.DENSITY_MEDIUM;
+        resolvedDensityDpi_ = densityDpi;
+        resolvedScreenSize_ = screenSize;
+        resolvedSize_ = size;
+        return size;
+    }
+
+    /**
+     * 実行中の Android の API Level を返します。 {@code Build.VERSION.SDK_INT} は API Level 4 からのため、文字列から求めます。
+     */
+    private static int getSdkVersion() {
+        try {
+            return Integer.parseInt(Build.VERSION.SDK);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 指定された画面密度に最も近いバケットのインデックスを返します。中間の値は、リソースの選択と同じく大きい方に丸めます。
+     */
+    private static int bucketIndexOf(int densityDpi) {
+        if (densityDpi <= 0) {
+            return 1; // mdpi
+        }
+        for (int i = 0; i < DENSITY_BUCKETS.length; i++) {
+            if (densityDpi <= DENSITY_BUCKETS[i]) {
+                return i;
+            }
+        }
+        return DENSITY_BUCKETS.length - 1;
+    }
+
+    /**
+     * アイコンをホームアプリのアイコンの大きさに揃えます。パッケージマネージャが返すアイコンが
+     * ホームアプリの大きさと異なる場合に、ショートカットアイコンの作成前に一度だけ拡大縮小するために使用します。
+     * <p>
+     * 縮小は {@link IconMipChain} を介して行うため、大きなアイコンを大きく縮小してもピクセルが間引かれません。
+     * </p>
+     *
+     * @param context コンテキスト。
+     * @param icon アイコン。
+     * @return 縦横比を維持して、長辺をホームアプリのアイコンの大きさに揃えたアイコン。すでに揃っていれば
+     *         {@code icon} そのもの。
+     */
+    public static Bitmap toLauncherSize(Context context, Bitmap icon) {
+        final int size = getLauncherIconSize(context);
+        final int width = icon.getWidth();
+        final int height = icon.getHeight();
+        if (Math.max(width, height) == size) {
+            return icon;
+        }
+        final float ratio = (float) size / Math.max(width, height);
+        final Bitmap scaled = Bitmap.createBitmap(Math.max(1, Math.round(width * ratio)),
+                Math.max(1, Math.round(height * ratio)), Bitmap.Config.ARGB_8888);
+        final IconMipChain mipChain = new IconMipChain(icon);
+        try {
+            mipChain.draw(new Canvas(scaled), ratio, 0.0f, 0.0f);
+        } finally {
+            mipChain.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * インスタンス作成禁止
+     */
+    private IconSizeResolver() {
+        throw new AssertionError("instantiation prohibited");
+    }
+
+    /**
+     * API Level 4 で追加されたフィールドを読むクラスです。 1.5 でフィールドの解決に失敗しないよう、
+     * {@link #HAS_SCREEN_INFO} が {@code true} の場合にのみ使用すること。
+     */
+    private static final class ScreenInfo {
+        static int getDensityDpi(Resources res) {
+            return res.getDisplayMetrics().densityDpi;
+        }
+
+        static int getScreenSize(Resources res) {
+            return res.getConfiguration().screenLayout & Configuration.SCREENLAYOUT_SIZE_MASK;
+        }
+
+        private ScreenInfo() {
+            throw new AssertionError("instantiation prohibited");
+        }
+    }
+}
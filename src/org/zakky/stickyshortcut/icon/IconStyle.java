@@ -0,0 +1,617 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.icon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.LinearGradient;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Shader;
+import android.util.SparseIntArray;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * ショートカットアイコンのスタイルを、下から順に重ねるレイヤーのリストとして宣言的に記述したものです。
+ * <p>
+ * 各レイヤーは、描画する内容( {@link Layer#appIcon() アプリアイコン}、 {@link Layer#resource(int...)
+ * 画像リソース}、 {@link Layer#shape(LayerShape) 形})に、拡大縮小・配置、着色、重ね方の指定を加えたものです。
+ * スタイルは {@link RenderGraph} にまとめてコンパイルして使用します。
+ * </p>
+ *
+ * <pre>
+ * IconStyle.builder(&quot;arrow-blue&quot;)
+ *         .add(Layer.shape(LayerShape.ARROW_TAIL).tint(baseTint))
+ *         .add(Layer.appIcon().transform(0.92f, 0.08f, 0.0f))
+ *         .add(Layer.shape(LayerShape.ARROW_HEAD).tint(arrowTint))
+ *         .build();
+ * </pre>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class IconStyle {
+
+    /**
+     * 画像リソースが用意されているアイコンのピクセル数。 {@link Layer#resource(int...)} のリソース識別子はこの順に並ぶ。
+     */
+    static final int[] LAYER_SIZES = {
+            72, 60, 48, 44, 36, 32,
+    };
+
+    /**
+     * アイコンのピクセル数から、使用する画像リソースの {@link #LAYER_SIZES} 上のインデックスへの表。
+     * すべてのスタイルで共有する。 {@code LAYER_SIZES} で同期してアクセスすること。
+     */
+    private static final SparseIntArray LAYER_INDEX = new SparseIntArray();
+
+    private final String id_;
+
+    private final List<Layer> layers_;
+
+    /**
+     * 指定された識別子のスタイルを記述するビルダーを返します。
+     *
+     * @param id スタイルの識別子。キャッシュのキーに使用するため、英数字と {@code '-'} のみで構成し、
+     *            スタイルの内容を変更した場合は変更すること。
+     * @return ビルダー。
+     */
+    public static Builder builder(String id) {
+        return new Builder(id);
+    }
+
+    private IconStyle(String id, List<Layer> layers) {
+        super();
+        id_ = id;
+        layers_ = layers;
+    }
+
+    /**
+     * @return スタイルの識別子。
+     */
+    public String getId() {
+        return id_;
+    }
+
+    /**
+     * @return 下から順に並んだレイヤー。変更不可。
+     */
+    List<Layer> getLayers() {
+        return layers_;
+    }
+
+    @Override
+    public String toString() {
+        return "IconStyle[" + id_ + ", layers=" + layers_ + "]";
+    }
+
+    /**
+     * 指定されたピクセル数のアイコンに使用する画像リソースの、 {@link #LAYER_SIZES} 上のインデックスを返します。
+     * <p>
+     * 同じ大きさの画像があればそれを、なければ縮小して使えるようにアイコンより大きい画像のうち最も小さいものを選びます。
+     * アイコンがすべての画像より大きい場合は、最も大きい画像を選びます。結果は {@link #LAYER_INDEX} に記憶します。
+     * </p>
+     */
+    static int layerIndexFor(int iconSize) {
+        synchronized (LAYER_SIZES) {
+            final int cached = LAYER_INDEX.get(iconSize, -1);
+            if (cached >= 0) {
+                return cached;
+            }
+            int index = 0;
+            for (int i = 0; i < LAYER_SIZES.length; i++) {
+                if (LAYER_SIZES[i] >= iconSize) {
+                    // 降順に並んでいるため、最後に見つかったものが最も小さい。
+                    index = i;
+                }
+            }
+            LAYER_INDEX.put(iconSize, index);
+            return index;
+        }
+    }
+
+    /**
+     * {@link IconStyle} のビルダーです。
+     */
+    public static final class Builder {
+        private final String id_;
+
+        private final List<Layer> layers_ = new ArrayList<Layer>(3);
+
+        Builder(String id) {
+            id_ = id;
+        }
+
+        /**
+         * これまでに追加したレイヤーの上にレイヤーを追加します。
+         *
+         * @param layer レイヤー。
+         * @return このビルダー。
+         */
+        public Builder add(Layer layer) {
+            layers_.add(layer);
+            return this;
+        }
+
+        /**
+         * @return 構築したスタイル。
+         */
+        public IconStyle build() {
+            if (layers_.isEmpty()) {
+                throw new IllegalStateException("no layers: " + id_);
+            }
+            return new IconStyle(id_, Collections.unmodifiableList(new ArrayList<Layer>(layers_)));
+        }
+    }
+
+    /**
+     * スタイルを構成する 1 枚のレイヤーです。不変オブジェクトで、変更するメソッドは新しいインスタンスを返します。
+     */
+    public static final class Layer {
+
+        private final Source source_;
+
+        /** 拡大率。 */
+        private final float scale_;
+
+        /** 描画位置の X 座標。アイコンの幅に対する割合。 */
+        private final float left_;
+
+        /** 描画位置の Y 座標。アイコンの高さに対する割合。 */
+        private final float top_;
+
+        @CheckForNull
+        private final Tint tint_;
+
+        private final PorterDuff.Mode blend_;
+
+        /**
+         * アプリのオリジナルアイコンを描画するレイヤーを返します。このレイヤーは着色できません。
+         *
+         * @return レイヤー。
+         */
+        public static Layer appIcon() {
+            return new Layer(AppIconSource.INSTANCE, 1.0f, 0.0f, 0.0f, null,
+                    PorterDuff.Mode.SRC_OVER);
+        }
+
+        /**
+         * 画像リソースを描画するレイヤーを返します。アイコンの大きさに合った画像を選んで使用します。
+         *
+         * @param resIds 画像のリソース識別子。72, 60, 48, 44, 36, 32 ピクセルの順に指定すること。
+         * @return レイヤー。
+         */
+        public static Layer resource(int... resIds) {
+            return new Layer(new ResourceSource(resIds), 1.0f, 0.0f, 0.0f, null,
+                    PorterDuff.Mode.SRC_OVER);
+        }
+
+        /**
+         * 形をマスクとして描画するレイヤーを返します。色は {@link #tint(Tint)} で指定します。
+         *
+         * @param shape 形。
+         * @return レイヤー。
+         */
+        public static Layer shape(LayerShape shape) {
+            return new Layer(new ShapeSource(shape), 1.0f, 0.0f, 0.0f, null,
+                    PorterDuff.Mode.SRC_OVER);
+        }
+
+        private Layer(Source source, float scale, float left, float top, @CheckForNull Tint tint,
+                PorterDuff.Mode blend) {
+            source_ = source;
+            scale_ = scale;
+            left_ = left;
+            top_ = top;
+            tint_ = tint;
+            blend_ = blend;
+        }
+
+        /**
+         * 拡大縮小・配置を指定したレイヤーを返します。
+         *
+         * @param scale 拡大率。
+         * @param left 描画位置の X 座標。アイコンの幅に対する割合。
+         * @param top 描画位置の Y 座標。アイコンの高さに対する割合。
+         * @return レイヤー。
+         */
+        public Layer transform(float scale, float left, float top) {
+            return new Layer(source_, scale, left, top, tint_, blend_);
+        }
+
+        /**
+         * レイヤーをマスクとして扱い、指定された色で着色するレイヤーを返します。
+         *
+         * @param tint 着色。
+         * @return レイヤー。
+         * @throws IllegalStateException アプリアイコンのレイヤーの場合。
+         */
+        public Layer tint(Tint tint) {
+            if (source_.dependsOnAppIcon()) {
+                throw new IllegalStateException("app icon layer cannot be tinted");
+            }
+            return new Layer(source_, scale_, left_, top_, tint, blend_);
+        }
+
+        /**
+         * 下のレイヤーへの重ね方を指定したレイヤーを返します。デフォルトは {@link PorterDuff.Mode#SRC_OVER}。
+         *
+         * @param blend 重ね方。
+         * @return レイヤー。
+         */
+        public Layer blend(PorterDuff.Mode blend) {
+            return new Layer(source_, scale_, left_, top_, tint_, blend);
+        }
+
+        /**
+         * @return アプリのオリジナルアイコンによって内容が変わるレイヤーであれば {@code true}。
+         */
+        boolean dependsOnAppIcon() {
+            return source_.dependsOnAppIcon();
+        }
+
+        /**
+         * 重ね方を除いた、レイヤーの内容を識別する文字列を返します。同じ文字列のレイヤーは同じ内容になります。
+         *
+         * @return レイヤーの内容を識別する文字列。
+         */
+        String getKey() {
+            final StringBuilder sb = new StringBuilder(source_.getKey());
+            if (!isIdentity()) {
+                sb.append('@').append(scale_).append(',').append(left_).append(',').append(top_);
+            }
+            final Tint tint = tint_;
+            if (tint != null) {
+                sb.append('#').append(tint.getId());
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @return 拡大縮小・配置を指定していなければ {@code true}。
+         */
+        boolean isIdentity() {
+            return scale_ == 1.0f && left_ == 0.0f && top_ == 0.0f;
+        }
+
+        /**
+         * このレイヤーを、指定された重ね方で描画先に重ねます。
+         * <p>
+         * {@link PorterDuff.Mode#SRC_OVER} 以外の重ね方では、レイヤーの外側の透明な部分も下のレイヤーに作用するため、
+         * いったんアイコンと同じ大きさの {@link Bitmap} ( {@link BitmapPool} から取得)に描画してから重ねます。
+         * </p>
+         *
+         * @param canvas 描画先。アイコンと同じ大きさであること。
+         * @param res リソース。
+         * @param mipChain オリジナルアイコンのミップマップ。アプリアイコンに依存しないレイヤーでは使用しません。
+         * @param width アイコンの幅。
+         * @param height アイコンの高さ。
+         */
+        void draw(Canvas canvas, Resources res, @CheckForNull IconMipChain mipChain, int width,
+                int height) {
+            if (blend_ == PorterDuff.Mode.SRC_OVER) {
+                source_.draw(canvas, res, mipChain, this, width, height);
+                return;
+            }
+            final BitmapPool pool = BitmapPool.getInstance();
+            final Bitmap layer = pool.obtain(width, height);
+            try {
+                source_.draw(new Canvas(layer), res, mipChain, this, width, height);
+                final Paint paint = new Paint();
+                paint.setXfermode(new PorterDuffXfermode(blend_));
+                canvas.drawBitmap(layer, 0, 0, paint);
+            } finally {
+                pool.release(layer);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + ((blend_ == PorterDuff.Mode.SRC_OVER) ? "" : "/" + blend_);
+        }
+    }
+
+    /**
+     * マスクとして扱うレイヤーの着色を表します。
+     * <p>
+     * レイヤーの高さに対する割合で指定された 2 点の間で、縦方向に開始色から終了色へ変化するグラデーションです。
+     * 2 点の外側はそれぞれの端の色になります。
+     * </p>
+     * <p>
+     * 縁取りの色を指定した場合は、形の左上の縁にハイライト、右下の縁に影を重ねて、立体的な面取りを表現します。
+     * </p>
+     */
+    public static final class Tint {
+
+        /** 面取りの縁の幅。レイヤーの高さに対する割合。 72 ピクセルのアイコンで 2 ピクセル。 */
+        private static final float BEVEL_WIDTH = 2.0f / 72.0f;
+
+        /** グラデーションの開始色。 */
+        private final int startColor_;
+
+        /** グラデーションの終了色。 */
+        private final int endColor_;
+
+        /** グラデーションの開始位置。レイヤーの高さに対する割合。 */
+        private final float startY_;
+
+        /** グラデーションの終了位置。レイヤーの高さに対する割合。 */
+        private final float endY_;
+
+        /** 左上の縁に重ねるハイライトの色。 {@code 0} の場合は重ねない。 */
+        private final int highlightColor_;
+
+        /** 右下の縁に重ねる影の色。 {@code 0} の場合は重ねない。 */
+        private final int shadowColor_;
+
+        /**
+         * 指定された色のグラデーションを構築します。
+         *
+         * @param startColor 開始色。 {@code 0xAARRGGBB} 形式。
+         * @param endColor 終了色。 {@code 0xAARRGGBB} 形式。
+         * @param startY 開始位置。レイヤーの高さに対する割合。
+         * @param endY 終了位置。レイヤーの高さに対する割合。
+         */
+        public Tint(int startColor, int endColor, float startY, float endY) {
+            this(startColor, endColor, startY, endY, 0, 0);
+        }
+
+        /**
+         * 指定された色のグラデーションに、面取りの縁取りを加えた着色を構築します。
+         *
+         * @param startColor 開始色。 {@code 0xAARRGGBB} 形式。
+         * @param endColor 終了色。 {@code 0xAARRGGBB} 形式。
+         * @param startY 開始位置。レイヤーの高さに対する割合。
+         * @param endY 終了位置。レイヤーの高さに対する割合。
+         * @param highlightColor 左上の縁に重ねるハイライトの色。 {@code 0xAARRGGBB} 形式。 {@code 0} で重ねない。
+         * @param shadowColor 右下の縁に重ねる影の色。 {@code 0xAARRGGBB} 形式。 {@code 0} で重ねない。
+         */
+        public Tint(int startColor, int endColor, float startY, float endY, int highlightColor,
+                int shadowColor) {
+            super();
+            startColor_ = startColor;
+            endColor_ = endColor;
+            startY_ = startY;
+            endY_ = endY;
+            highlightColor_ = highlightColor;
+            shadowColor_ = shadowColor;
+        }
+
+        /**
+         * この着色でマスクを描画するための {@link Paint} を作成します。
+         *
+         * @param height 描画先の高さ。
+         * @return {@link Paint}。
+         */
+        Paint createPaint(int height) {
+            final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            paint.setShader(new LinearGradient(0.0f, height * startY_, 0.0f, height * endY_,
+                    startColor_, endColor_, Shader.TileMode.CLAMP));
+            return paint;
+        }
+
+        /**
+         * マスクの縁に、面取りのハイライトと影を重ねます。縁取りの色が指定されていなければ何もしません。
+         * <p>
+         * マスクを縁の幅だけずらして抜くことで縁の部分を求めるため、アイコンと同じ大きさの {@link Bitmap} (
+         * {@link BitmapPool} から取得)を使用します。
+         * </p>
+         *
+         * @param canvas 描画先。アイコンと同じ大きさであること。
+         * @param mask マスク。
+         * @param matrix マスクの拡大縮小・配置。 {@code null} の場合はそのまま描画する。
+         * @param width アイコンの幅。
+         * @param height アイコンの高さ。
+         */
+        void drawBevel(Canvas canvas, Bitmap mask, @CheckForNull Matrix matrix, int width,
+                int height) {
+            if (highlightColor_ == 0 && shadowColor_ == 0) {
+                return;
+            }
+            final float offset = Math.max(1.0f, Math.round(height * BEVEL_WIDTH));
+            final BitmapPool pool = BitmapPool.getInstance();
+            final Bitmap edge = pool.obtain(width, height);
+            try {
+                if (highlightColor_ != 0) {
+                    // 右下へずらしたマスクで抜くと、左上の縁が残る。
+                    drawEdge(canvas, edge, mask, matrix, highlightColor_, offset);
+                }
+                if (shadowColor_ != 0) {
+                    edge.eraseColor(0);
+                    drawEdge(canvas, edge, mask, matrix, shadowColor_, -offset);
+                }
+            } finally {
+                pool.release(edge);
+            }
+        }
+
+        private static void drawEdge(Canvas canvas, Bitmap edge, Bitmap mask,
+                @CheckForNull Matrix matrix, int color, float offset) {
+            final Canvas edgeCanvas = new Canvas(edge);
+            final Matrix m = (matrix == null) ? new Matrix() : new Matrix(matrix);
+            final Paint fill = new Paint(Paint.FILTER_BITMAP_FLAG);
+            fill.setColor(color);
+            edgeCanvas.drawBitmap(mask, m, fill);
+
+            m.postTranslate(offset, offset);
+            final Paint cut = new Paint(Paint.FILTER_BITMAP_FLAG);
+            cut.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
+            edgeCanvas.drawBitmap(mask, m, cut);
+
+            canvas.drawBitmap(edge, 0, 0, null);
+        }
+
+        /**
+         * @return この着色を識別する文字列。
+         */
+        String getId() {
+            final String id = Integer.toHexString(startColor_) + "-"
+                    + Integer.toHexString(endColor_) + "-" + Math.round(startY_ * 100) + "-"
+                    + Math.round(endY_ * 100);
+            if (highlightColor_ == 0 && shadowColor_ == 0) {
+                return id;
+            }
+            return id + "-" + Integer.toHexString(highlightColor_) + "-"
+                    + Integer.toHexString(shadowColor_);
+        }
+    }
+
+    /**
+     * レイヤーに描画する内容です。
+     */
+    private abstract static class Source {
+        /**
+         * @return 内容を識別する文字列。
+         */
+        abstract String getKey();
+
+        /**
+         * @return アプリのオリジナルアイコンによって内容が変わる場合は {@code true}。
+         */
+        abstract boolean dependsOnAppIcon();
+
+        /**
+         * 内容を、レイヤーの拡大縮小・配置と着色に従って描画先に描画します。
+         *
+         * @param canvas 描画先。
+         * @param res リソース。
+         * @param mipChain オリジナルアイコンのミップマップ。
+         * @param layer 描画するレイヤー。
+         * @param width アイコンの幅。
+         * @param height アイコンの高さ。
+         */
+        abstract void draw(Canvas canvas, Resources res, @CheckForNull IconMipChain mipChain,
+                Layer layer, int width, int height);
+    }
+
+    /**
+     * アプリのオリジナルアイコン。 {@link IconMipChain} から縮小して描画する。
+     */
+    private static final class AppIconSource extends Source {
+        static final AppIconSource INSTANCE = new AppIconSource();
+
+        @Override
+        String getKey() {
+            return "app";
+        }
+
+        @Override
+        boolean dependsOnAppIcon() {
+            return true;
+        }
+
+        @Override
+        void draw(Canvas canvas, Resources res, @CheckForNull IconMipChain mipChain, Layer layer,
+                int width, int height) {
+            if (mipChain == null) {
+                throw new IllegalArgumentException("app icon is required: " + layer);
+            }
+            mipChain.draw(canvas, layer.scale_, width * layer.left_, height * layer.top_);
+        }
+    }
+
+    /**
+     * {@link LayerCache} から取得した画像を描画する内容。
+     */
+    private abstract static class ImageSource extends Source {
+        /**
+         * アイコンの大きさに合わせた画像を {@link LayerCache} から取得します。
+         *
+         * @param mask {@code ALPHA_8} のマスクとして取得する場合は {@code true}。
+         */
+        abstract Bitmap load(Resources res, boolean mask, int width, int height);
+
+        @Override
+        final boolean dependsOnAppIcon() {
+            return false;
+        }
+
+        @Override
+        final void draw(Canvas canvas, Resources res, @CheckForNull IconMipChain mipChain,
+                Layer layer, int width, int height) {
+            final Tint tint = layer.tint_;
+            final Bitmap src = load(res, tint != null, width, height);
+            final Paint paint = (tint == null) ? new Paint(Paint.FILTER_BITMAP_FLAG) : tint
+                    .createPaint(height);
+            Matrix m = null;
+            if (layer.isIdentity()) {
+                canvas.drawBitmap(src, 0, 0, paint);
+            } else {
+                m = new Matrix();
+                m.postScale(layer.scale_, layer.scale_);
+                m.postTranslate(width * layer.left_, height * layer.top_);
+                canvas.drawBitmap(src, m, paint);
+            }
+            if (tint != null) {
+                tint.drawBevel(canvas, src, m, width, height);
+            }
+        }
+    }
+
+    private static final class ResourceSource extends ImageSource {
+        private final int[] resIds_;
+
+        ResourceSource(int[] resIds) {
+            if (resIds.length != LAYER_SIZES.length) {
+                throw new IllegalArgumentException("resource ids for " + LAYER_SIZES.length
+                        + " sizes are required: " + resIds.length);
+            }
+            resIds_ = resIds.clone();
+        }
+
+        @Override
+        String getKey() {
+            return "res-" + Integer.toHexString(resIds_[0]);
+        }
+
+        @Override
+        Bitmap load(Resources res, boolean mask, int width, int height) {
+            final int resId = resIds_[layerIndexFor(width)];
+            final LayerCache layerCache = LayerCache.getInstance();
+            return mask ? layerCache.getMask(res, resId, width, height) : layerCache.get(res,
+                    resId, width, height);
+        }
+    }
+
+    private static final class ShapeSource extends ImageSource {
+        private final LayerShape shape_;
+
+        ShapeSource(LayerShape shape) {
+            shape_ = shape;
+        }
+
+        @Override
+        String getKey() {
+            return "shape-" + shape_.getId();
+        }
+
+        @Override
+        Bitmap load(Resources res, boolean mask, int width, int height) {
+            // 形は常にマスクとして描画する。
+            return LayerCache.getInstance().getMask(res, shape_, width, height);
+        }
+    }
+}
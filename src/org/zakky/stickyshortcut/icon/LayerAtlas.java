@@ -0,0 +1,298 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.icon;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.util.Log;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * ビルド時に作成したレイヤー画像のアトラスファイルを、メモリマップして読み込むクラスです。
+ * <p>
+ * アトラスはビルド時に {@code tools} の {@code LayerAtlasPacker} が作成する、 PNG を展開済みの生ピクセルの
+ * ファイルです。 {@link Bitmap} のメモリ上の並びと同じ形式で格納しているため、
+ * {@link Bitmap#copyPixelsFromBuffer(java.nio.Buffer)} でそのまま読み込め、レイヤーの取得時に PNG の展開
+ * (zlib の inflate)が発生しません。アセットが圧縮されずに格納されていればアセットを直接マップし、
+ * 圧縮されている場合は一度だけアプリのデータ領域に展開してからマップします。
+ * </p>
+ * <p>
+ * ファイル形式(ビッグエンディアン):
+ * </p>
+ *
+ * <pre>
+ * int    マジックナンバー 0x53534C41 ("SSLA")
+ * int    バージョン
+ * int    レイヤーの数
+ * レイヤーの数だけ繰り返し:
+ *   UTF    レイヤー名(リソースのエントリ名)
+ *   short  幅
+ *   short  高さ
+ *   byte   形式。 0: ARGB_8888(乗算済みの R, G, B, A の順), 1: ALPHA_8
+ *   int    ピクセルデータのファイル先頭からの位置(4 バイト境界)
+ * ピクセルデータ
+ * </pre>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class LayerAtlas {
+    private static final String TAG = LayerAtlas.class.getSimpleName();
+
+    /** アトラスのアセット名。 */
+    static final String ASSET_NAME = "layers.atlas";
+
+    /*
+     * 以下の定数は LayerAtlasPacker と一致させること。
+     */
+
+    private static final int MAGIC = 0x53534C41; // "SSLA"
+
+    private static final int VERSION = 1;
+
+    private static final int FORMAT_ARGB_8888 = 0;
+
+    private static final int FORMAT_ALPHA_8 = 1;
+
+    /**
+     * アトラスを開きます。アトラスが存在しない、または読み込めない場合は {@code null} を返します。
+     * <p>
+     * アセットの展開が必要な場合はファイルの入出力が発生するため、ワーカースレッドから呼び出してください。
+     * </p>
+     *
+     * @param context コンテキスト。
+     * @return アトラス。
+     */
+    @CheckForNull
+    public static LayerAtlas open(Context context) {
+        try {
+            final ByteBuffer buffer = map(context);
+            if (buffer == null) {
+                return null;
+            }
+            return new LayerAtlas(buffer);
+        } catch (IOException e) {
+            Log.w(TAG, "failed to open layer atlas", e);
+            return null;
+        } catch (RuntimeException e) {
+            // 壊れたアトラスによる BufferUnderflowException など
+            Log.w(TAG, "broken layer atlas", e);
+            return null;
+        }
+    }
+
+    /**
+     * アトラスをメモリマップします。
+     *
+     * @return マップしたバッファ。アトラスが存在しない場合は {@code null}。
+     */
+    @CheckForNull
+    private static ByteBuffer map(Context context) throws IOException {
+        AssetFileDescriptor afd = null;
+        try {
+            afd = context.getAssets().openFd(ASSET_NAME);
+        } catch (FileNotFoundException e) {
+            // 圧縮して格納されているか、アトラスが存在しない
+        }
+        if (afd != null) {
+            final FileInputStream in = new FileInputStream(afd.getFileDescriptor());
+            try {
+                return in.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        afd.getStartOffset(), afd.getLength());
+            } finally {
+                in.close();
+                afd.close();
+            }
+        }
+
+        final File file = extract(context);
+        if (file == null) {
+            return null;
+        }
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * アセットのアトラスをアプリのデータ領域に展開します。このバージョンのアプリで展開済みであれば何もしません。
+     *
+     * @return 展開したファイル。アトラスが存在しない場合は {@code null}。
+     */
+    @CheckForNull
+    private static File extract(Context context) throws IOException {
+        final File dir = context.getFilesDir();
+        final File file = new File(dir, "layers-" + getVersionCode(context) + ".atlas");
+        if (file.exists()) {
+            return file;
+        }
+
+        final InputStream in;
+        try {
+            in = context.getAssets().open(ASSET_NAME);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        final File tmp = new File(dir, file.getName() + ".tmp");
+        try {
+            final OutputStream out = new FileOutputStream(tmp);
+            try {
+                final byte[] buf = new byte[8192];
+                int read;
+                while ((read = in.read(buf)) != -1) {
+                    out.write(buf, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("failed to rename " + tmp + " to " + file);
+        }
+
+        // 以前のバージョンで展開したものを削除する。
+        final File[] olds = dir.listFiles();
+        if (olds != null) {
+            for (File old : olds) {
+                if (old.getName().endsWith(".atlas") && !old.equals(file)) {
+                    old.delete();
+                }
+            }
+        }
+        return file;
+    }
+
+    private static int getVersionCode(Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0)
+                    .versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    /** アトラス全体。 {@link ByteBuffer} の位置は共有されるため、 {@link ByteBuffer#duplicate()} して使用すること。 */
+    private final ByteBuffer buffer_;
+
+    private final Map<String, Entry> entries_;
+
+    private LayerAtlas(ByteBuffer buffer) throws IOException {
+        super();
+        buffer_ = buffer;
+        final ByteBuffer header = buffer.duplicate();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("unsupported layer atlas");
+        }
+        final int count = header.getInt();
+        entries_ = new HashMap<String, Entry>(count * 2);
+        for (int i = 0; i < count; i++) {
+            final String name = readUtf(header);
+            final int width = header.getShort() & 0xFFFF;
+            final int height = header.getShort() & 0xFFFF;
+            final int format = header.get();
+            final int offset = header.getInt();
+            entries_.put(name, new Entry(width, height, format, offset));
+        }
+    }
+
+    /**
+     * {@link java.io.DataOutput#writeUTF(String)} で書き込まれた文字列を読み込みます。
+     */
+    private static String readUtf(ByteBuffer buffer) throws IOException {
+        final int length = buffer.getShort() & 0xFFFF;
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        // レイヤー名はリソースのエントリ名のため、 ASCII の範囲の文字しか含まない。
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * 指定された名前のレイヤーを読み込みます。
+     *
+     * @param name レイヤー名。リソースのエントリ名( {@code arrow_dro01_72} など)。
+     * @return 読み込んだ {@link Bitmap}。アトラスに含まれていない場合は {@code null}。
+     */
+    @CheckForNull
+    public Bitmap decode(String name) {
+        final Entry entry = entries_.get(name);
+        if (entry == null) {
+            return null;
+        }
+        final Bitmap.Config config = (entry.format_ == FORMAT_ALPHA_8) ? Bitmap.Config.ALPHA_8
+                : Bitmap.Config.ARGB_8888;
+        final int bytesPerPixel = (entry.format_ == FORMAT_ALPHA_8) ? 1 : 4;
+        final Bitmap bitmap = Bitmap.createBitmap(entry.width_, entry.height_, config);
+        if (bitmap.getRowBytes() != entry.width_ * bytesPerPixel) {
+            // 行の境界が揃えられている場合はそのままコピーできない。
+            bitmap.recycle();
+            return null;
+        }
+        final ByteBuffer pixels = buffer_.duplicate();
+        pixels.position(entry.offset_);
+        pixels.limit(entry.offset_ + entry.width_ * entry.height_ * bytesPerPixel);
+        bitmap.copyPixelsFromBuffer(pixels);
+        return bitmap;
+    }
+
+    @Override
+    public String toString() {
+        return "LayerAtlas[layers=" + entries_.size() + ", bytes=" + buffer_.capacity() + "]";
+    }
+
+    /**
+     * アトラス内の 1 枚のレイヤーの情報です。
+     */
+    private static final class Entry {
+        final int width_;
+
+        final int height_;
+
+        final int format_;
+
+        final int offset_;
+
+        Entry(int width, int height, int format, int offset) {
+            width_ = width;
+            height_ = height;
+            format_ = format;
+            offset_ = offset;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.icon;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * ショートカットアイコンの合成に使用するレイヤー画像(ベース、矢印、バッジ)を、デコード済みの状態で
+ * 保持するプロセス全体で共有のキャッシュです。
+ * <p>
+ * キーはリソース識別子(または {@link LayerShape})と描画先のサイズの組で、値は描画先のサイズに合わせて
+ * 拡大縮小済みの {@link Bitmap} です。着色して使用するレイヤーは、アルファチャネルのみの {@code ALPHA_8}
+ * のマスクとして保持します。
+ * 保持している {@link Bitmap} のバイト数の合計が上限を超えると、最も長く使われていないものから破棄します。
+ * </p>
+ * <p>
+ * {@link #setAtlasContext(Context)} でコンテキストが設定されていれば、最初に画像リソースを読み込む際に
+ * {@link LayerAtlas} を開き、以降の画像リソースは PNG をデコードせずにアトラスから読み込みます。
+ * </p>
+ * <p>
+ * このキャッシュから返された {@link Bitmap} は他の呼び出し元と共有されているため、呼び出し側で
+ * {@link Bitmap#recycle()} したり、内容を変更したりしないでください。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class LayerCache {
+
+    /** キャッシュが保持する {@link Bitmap} のバイト数の上限のデフォルト値。 */
+    private static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    private static final LayerCache INSTANCE = new LayerCache(DEFAULT_MAX_BYTES);
+
+    /**
+     * プロセス全体で共有される {@link LayerCache} を返します。
+     *
+     * @return {@link LayerCache} のインスタンス。
+     */
+    public static LayerCache getInstance() {
+        return INSTANCE;
+    }
+
+    /** 保持する {@link Bitmap} のバイト数の上限。 */
+    private final int maxBytes_;
+
+    /** アクセス順に並んだキャッシュ本体。 {@code this} で同期してアクセスすること。 */
+    private final LinkedHashMap<Key, Bitmap> map_ = new LinkedHashMap<Key, Bitmap>(16, 0.75f,
+            true);
+
+    /** 現在保持している {@link Bitmap} のバイト数の合計。 */
+    private int currentBytes_ = 0;
+
+    private int hitCount_ = 0;
+
+    private int missCount_ = 0;
+
+    private int evictionCount_ = 0;
+
+    /** アトラスを開くためのコンテキスト。 {@link #atlasLock_} で同期してアクセスすること。 */
+    @CheckForNull
+    private Context atlasContext_ = null;
+
+    /** アトラスを開こうとした後であれば {@code true}。 {@link #atlasLock_} で同期してアクセスすること。 */
+    private boolean atlasOpened_ = false;
+
+    /** 画像リソースの代わりに読み込むアトラス。 {@link #atlasLock_} で同期して設定すること。 */
+    @CheckForNull
+    private volatile LayerAtlas atlas_ = null;
+
+    /** アトラスを開く処理を 1 度に限るためのロック。キャッシュ本体のロックとは別にし、開いている間もヒットを返せるようにする。 */
+    private final Object atlasLock_ = new Object();
+
+    /**
+     * 指定されたバイト数を上限とするキャッシュを構築します。
+     *
+     * @param maxBytes 保持する {@link Bitmap} のバイト数の上限。
+     */
+    LayerCache(int maxBytes) {
+        super();
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        maxBytes_ = maxBytes;
+    }
+
+    /**
+     * 指定されたリソースの画像を、指定されたサイズに収まるように縦横比を維持して拡大縮小したものを返します。
+     * キャッシュに存在しない場合はデコードしてキャッシュに追加します。
+     *
+     * @param res リソース。
+     * @param resId 画像のリソース識別子。
+     * @param width 描画先の幅。
+     * @param height 描画先の高さ。
+     * @return デコード済みの {@link Bitmap}。 共有されているため変更・ {@code recycle()} 禁止。
+     */
+    public Bitmap get(Resources res, int resId, int width, int height) {
+        return get(res, new Key(resId, null, width, height, false));
+    }
+
+    /**
+     * 指定されたリソースの画像のアルファチャネルを、指定されたサイズに収まるように縦横比を維持して拡大縮小した
+     * {@code ALPHA_8} のマスクとして返します。キャッシュに存在しない場合はデコードしてキャッシュに追加します。
+     * <p>
+     * マスクは {@link android.graphics.Paint} の色やシェーダで着色して描画します。
+     * </p>
+     *
+     * @param res リソース。
+     * @param resId 画像のリソース識別子。
+     * @param width 描画先の幅。
+     * @param height 描画先の高さ。
+     * @return {@code ALPHA_8} のマスク。 共有されているため変更・ {@code recycle()} 禁止。
+     */
+    public Bitmap getMask(Resources res, int resId, int width, int height) {
+        return get(res, new Key(resId, null, width, height, true));
+    }
+
+    /**
+     * 指定された形を、指定されたサイズに収まるように縦横比を維持して描画した {@code ALPHA_8} のマスクを返します。
+     * キャッシュに存在しない場合は描画してキャッシュに追加します。
+     *
+     * @param res リソース。
+     * @param shape レイヤーの形。
+     * @param width 描画先の幅。
+     * @param height 描画先の高さ。
+     * @return {@code ALPHA_8} のマスク。 共有されているため変更・ {@code recycle()} 禁止。
+     */
+    public Bitmap getMask(Resources res, LayerShape shape, int width, int height) {
+        return get(res, new Key(0, shape, width, height, true));
+    }
+
+    private Bitmap get(Resources res, Key key) {
+        synchronized (this) {
+            final Bitmap cached = map_.get(key);
+            if (cached != null) {
+                hitCount_++;
+                return cached;
+            }
+            missCount_++;
+        }
+
+        // デコードはロックの外で行う。同じキーを同時にデコードした場合は先に登録された方を使う。
+        final Bitmap decoded = decode(res, key);
+
+        synchronized (this) {
+            final Bitmap raced = map_.get(key);
+            if (raced != null) {
+                return raced;
+            }
+            map_.put(key, decoded);
+            currentBytes_ += sizeOf(decoded);
+            trimToSize(maxBytes_);
+        }
+        return decoded;
+    }
+
+    /**
+     * 画像リソースの代わりに読み込むアトラスを開くためのコンテキストを設定します。ここではアトラスを開かず、
+     * 最初に画像リソースを読み込む際に、読み込むスレッドで開きます。アトラスに含まれない画像リソースは、
+     * これまでどおりデコードします。
+     *
+     * @param context コンテキスト。アプリケーションコンテキストを保持します。
+     */
+    public void setAtlasContext(Context context) {
+        synchronized (atlasLock_) {
+            atlasContext_ = context.getApplicationContext();
+        }
+    }
+
+    /**
+     * アトラスを返します。まだ開いていなければ開きます。アセットの展開が必要な場合があるため、ワーカースレッドから呼び出すこと。
+     */
+    @CheckForNull
+    private LayerAtlas getAtlas() {
+        synchronized (atlasLock_) {
+            final Context context = atlasContext_;
+            if (!atlasOpened_ && context != null) {
+                atlas_ = LayerAtlas.open(context);
+                atlasOpened_ = true;
+            }
+            return atlas_;
+        }
+    }
+
+    /**
+     * キャッシュしているすべての {@link Bitmap} を破棄します。
+     * <p>
+     * 破棄した {@link Bitmap} は使用中の可能性があるため {@code recycle()} は行いません。
+     * </p>
+     */
+    public synchronized void evictAll() {
+        trimToSize(0);
+    }
+
+    /**
+     * @return キャッシュにヒットした回数。
+     */
+    public synchronized int getHitCount() {
+        return hitCount_;
+    }
+
+    /**
+     * @return キャッシュにヒットせず、デコードを行った回数。
+     */
+    public synchronized int getMissCount() {
+        return missCount_;
+    }
+
+    /**
+     * @return 上限を超えたために破棄した回数。
+     */
+    public synchronized int getEvictionCount() {
+        return evictionCount_;
+    }
+
+    /**
+     * @return 現在保持している {@link Bitmap} のバイト数の合計。
+     */
+    public synchronized int getCurrentBytes() {
+        return currentBytes_;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LayerCache[entries=" + map_.size() + ", bytes=" + currentBytes_ + "/" + maxBytes_
+                + ", hit=" + hitCount_ + ", miss=" + missCount_ + ", eviction="
+                + evictionCount_ + ", atlas=" + atlas_ + "]";
+    }
+
+    /**
+     * 保持しているバイト数の合計が指定値以下になるまで、古いものから破棄します。 {@code this}
+     * で同期した状態で呼び出すこと。
+     *
+     * @param maxBytes 破棄後のバイト数の上限。
+     */
+    private void trimToSize(int maxBytes) {
+        final Iterator<Map.Entry<Key, Bitmap>> it = map_.entrySet().iterator();
+        while (currentBytes_ > maxBytes && it.hasNext()) {
+            final Map.Entry<Key, Bitmap> eldest = it.next();
+            currentBytes_ -= sizeOf(eldest.getValue());
+            it.remove();
+            evictionCount_++;
+        }
+    }
+
+    /**
+     * リソースをデコードし、必要であれば描画先のサイズに合わせて拡大縮小します。形の場合は描画先のサイズで描画します。
+     */
+    private Bitmap decode(Resources res, Key key) {
+        final LayerShape shape = key.shape_;
+        if (shape != null) {
+            return shape.rasterize(key.width_, key.height_);
+        }
+        final Bitmap scaled = decodeScaled(res, key.resId_, key.width_, key.height_);
+        if (!key.mask_) {
+            return scaled;
+        }
+        try {
+            return scaled.extractAlpha();
+        } finally {
+            scaled.recycle();
+        }
+    }
+
+    private Bitmap decodeScaled(Resources res, int resId, int width, int height) {
+        final Bitmap decoded = decodeResource(res, resId);
+        if (decoded.getWidth() == width && decoded.getHeight() == height) {
+            // 描画先とサイズが同じ場合(通常はこっち)
+            return decoded;
+        }
+
+        // 描画先とサイズが異なる場合(レアケース)は、縦横比を維持して拡大縮小したものを保持する
+        final float ratio = ShortcutIconUtil.calcRatio(width, height, decoded.getWidth(),
+                decoded.getHeight());
+        final int scaledWidth = Math.max(1, Math.round(decoded.getWidth() * ratio));
+        final int scaledHeight = Math.max(1, Math.round(decoded.getHeight() * ratio));
+        final Bitmap scaled = Bitmap.createBitmap(scaledWidth, scaledHeight,
+                Bitmap.Config.ARGB_8888);
+        try {
+            final Matrix m = new Matrix();
+            m.postScale(ratio, ratio);
+            new Canvas(scaled).drawBitmap(decoded, m, new Paint(Paint.FILTER_BITMAP_FLAG));
+        } finally {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * 画像リソースを読み込みます。アトラスに含まれていればアトラスから読み込みます。
+     */
+    private Bitmap decodeResource(Resources res, int resId) {
+        final LayerAtlas atlas = getAtlas();
+        if (atlas != null) {
+            final Bitmap fromAtlas = atlas.decode(res.getResourceEntryName(resId));
+            if (fromAtlas != null) {
+                return fromAtlas;
+            }
+        }
+        return BitmapFactory.decodeResource(res, resId);
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * キャッシュのキーです。
+     */
+    private static final class Key {
+        private final int resId_;
+
+        /** 形から描画するレイヤーの場合は、その形。 */
+        @CheckForNull
+        private final LayerShape shape_;
+
+        private final int width_;
+
+        private final int height_;
+
+        /** {@code ALPHA_8} のマスクとして保持する場合は {@code true}。 */
+        private final boolean mask_;
+
+        Key(int resId, @CheckForNull LayerShape shape, int width, int height, boolean mask) {
+            resId_ = resId;
+            shape_ = shape;
+            width_ = width;
+            height_ = height;
+            mask_ = mask;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = resId_;
+            result = 31 * result + ((shape_ == null) ? 0 : shape_.hashCode());
+            result = 31 * result + width_;
+            result = 31 * result + height_;
+            result = 31 * result + (mask_ ? 1 : 0);
+            return result;
+        }
+
+        @Override
+        public boolean equals(@CheckForNull Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return resId_ == other.resId_ && shape_ == other.shape_ && width_ == other.width_
+                    && height_ == other.height_ && mask_ == other.mask_;
+        }
+    }
+}
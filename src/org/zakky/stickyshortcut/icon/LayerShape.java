@@ -0,0 +1,117 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.icon;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * {@link Path} で定義された、マスクとして使用するレイヤーの形です。
+ * <p>
+ * 形は {@link #UNIT} x {@link #UNIT} の座標系で定義し、要求された大きさに合わせて拡大縮小してから
+ * アンチエイリアスを有効にして描画します。画像リソースと異なり、どの大きさでも拡大縮小による
+ * ぼやけが生じません。描画したマスクは {@link LayerCache} が大きさごとに保持します。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public enum LayerShape {
+    /**
+     * 矢印の胴体。アプリアイコンの下に描画する。以前のマスク画像 {@code arrow_mask02_72.png} をトレースしたもの。
+     */
+    ARROW_TAIL("arrow-tail") {
+        @Override
+        void addTo(Path path) {
+            path.moveTo(45.5f, 32.0f);
+            path.cubicTo(46.0f, 50.0f, 40.0f, 65.0f, 22.0f, 71.5f);
+            path.quadTo(10.0f, 71.0f, 4.0f, 64.5f);
+            path.cubicTo(22.0f, 64.0f, 42.0f, 56.0f, 45.0f, 33.0f);
+            path.close();
+        }
+    },
+    /**
+     * 矢印の先端。アプリアイコンの上に描画する。以前のマスク画像 {@code arrow_mask01_72.png} をトレースしたもの。
+     */
+    ARROW_HEAD("arrow-head") {
+        @Override
+        void addTo(Path path) {
+            path.moveTo(20.0f, 31.0f);
+            path.lineTo(24.5f, 40.0f);
+            path.lineTo(27.5f, 51.0f);
+            path.lineTo(18.0f, 50.5f);
+            path.quadTo(15.5f, 61.0f, 18.0f, 71.0f);
+            path.quadTo(6.0f, 69.0f, 1.0f, 60.0f);
+            path.quadTo(-0.5f, 52.0f, 4.0f, 44.5f);
+            path.lineTo(0.5f, 42.0f);
+            path.quadTo(10.0f, 34.0f, 20.0f, 31.0f);
+            path.close();
+        }
+    };
+
+    /** 形を定義する座標系の幅・高さ。 */
+    static final float UNIT = 72.0f;
+
+    private final String id_;
+
+    private LayerShape(String id) {
+        id_ = id;
+    }
+
+    /**
+     * {@link #UNIT} x {@link #UNIT} の座標系で、形をパスに追加します。
+     *
+     * @param path 追加先。
+     */
+    abstract void addTo(Path path);
+
+    /**
+     * @return この形を識別する文字列。英数字と {@code '-'} のみで構成されます。
+     */
+    String getId() {
+        return id_;
+    }
+
+    /**
+     * 形を指定されたサイズに収まるように縦横比を維持して拡大縮小し、 {@code ALPHA_8} のマスクとして描画します。
+     *
+     * @param width 描画先の幅。
+     * @param height 描画先の高さ。
+     * @return 作成したマスク。
+     */
+    Bitmap rasterize(int width, int height) {
+        final float scale = Math.min(width, height) / UNIT;
+        final Path path = new Path();
+        addTo(path);
+        final Matrix m = new Matrix();
+        m.setScale(scale, scale);
+        path.transform(m);
+
+        final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        try {
+            new Canvas(bitmap).drawPath(path, new Paint(Paint.ANTI_ALIAS_FLAG));
+            return bitmap.extractAlpha();
+        } finally {
+            bitmap.recycle();
+        }
+    }
+}
@@ -0,0 +1,618 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.icon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.zakky.stickyshortcut.icon.IconStyle.Layer;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * 複数の {@link IconStyle} をまとめてコンパイルした、ショートカットアイコンの描画グラフです。
+ * <p>
+ * 各スタイルのレイヤーを、アプリアイコンに依存するかどうかが同じ連続したレイヤーの並び(セグメント)に区切り、
+ * 下から順にセグメントをたどる木にまとめます。木のノードは「そのセグメントまでを重ねた画像」を表し、
+ * 下側のレイヤーが共通するスタイルは同じノードを共有します。
+ * </p>
+ * <ul>
+ * <li>アプリアイコンに依存しないノード(着色済みのベースなど、一番下のセグメント)は、そのセグメントのレイヤーを
+ * 1 枚に重ねた中間画像(プレート)をアイコンの大きさごとにこのグラフが保持し、すべてのアプリで共有します。</li>
+ * <li>アプリアイコンに依存するノードのうち、複数のスタイルで共有されるものは、その時点までを重ねた中間画像を
+ * {@link #newSession(Bitmap)} で作成する {@link Session} がアプリごとに保持し、上に重ねるスタイル間で共有します。</li>
+ * <li>それ以外のノードは中間画像を作らず、作成中のアイコンに直接描画します。アプリアイコンの縮小は
+ * {@link IconMipChain} をセッション内で共有します。</li>
+ * </ul>
+ * <p>
+ * 中間画像は {@link BitmapPool} から取得します。複数のスレッドから同時に使用できます。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class RenderGraph {
+
+    /**
+     * アプリアイコンに依存しないノードの中間画像のバイト数の上限。超えた場合はすべて破棄して作り直す。
+     * 通常はアイコンの大きさが 1 通りのため、超えることはない。
+     * <p>
+     * 破棄した中間画像は、描画中のものがなくなった時点で {@link BitmapPool} に返却する。
+     * </p>
+     */
+    private static final int MAX_PLATE_BYTES = 1024 * 1024;
+
+    private final IconStyle[] styles_;
+
+    /** スタイルごとの、最上段のノード。コンパイル後は変更しない。 */
+    private final Map<IconStyle, Node> leaves_;
+
+    /** ノードの数。 */
+    private final int nodeCount_;
+
+    /** 複数のスタイルで共有されるノードの数。 */
+    private final int sharedCount_;
+
+    /**
+     * アプリアイコンに依存しないノードの中間画像。キーはノードのキーとアイコンの大きさ。 {@code this} で同期してアクセスすること。
+     */
+    private final Map<String, Plate> plates_ = new HashMap<String, Plate>();
+
+    /** {@link #plates_} のバイト数の合計。 {@code this} で同期してアクセスすること。 */
+    private int plateBytes_ = 0;
+
+    private int plateBuildCount_ = 0;
+
+    private int plateRecycleCount_ = 0;
+
+    /**
+     * 指定されたスタイルをコンパイルします。
+     *
+     * @param styles スタイル。
+     * @return 描画グラフ。
+     */
+    public static RenderGraph compile(IconStyle... styles) {
+        final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+        final Map<IconStyle, Node> leaves = new HashMap<IconStyle, Node>();
+        for (IconStyle style : styles) {
+            Node parent = null;
+            for (List<Layer> segment : segmentsOf(style)) {
+                final String key = ((parent == null) ? "" : parent.key_ + '|')
+                        + segmentKey(segment);
+                Node node = nodes.get(key);
+                if (node == null) {
+                    node = new Node(key, parent, segment);
+                    nodes.put(key, node);
+                    if (parent != null) {
+                        parent.consumers_++;
+                    }
+                }
+                parent = node;
+            }
+            if (parent == null) {
+                throw new IllegalArgumentException("no layers: " + style);
+            }
+            // このノードの画像をそのままスタイルの結果として使う。
+            parent.consumers_++;
+            leaves.put(style, parent);
+        }
+        int shared = 0;
+        for (Node node : nodes.values()) {
+            if (node.isShared()) {
+                shared++;
+            }
+        }
+        return new RenderGraph(styles.clone(), leaves, nodes.size(), shared);
+    }
+
+    /**
+     * スタイルのレイヤーを、アプリアイコンに依存するかどうかが同じ連続したレイヤーの並びに区切ります。
+     */
+    private static List<List<Layer>> segmentsOf(IconStyle style) {
+        final List<List<Layer>> segments = new ArrayList<List<Layer>>();
+        List<Layer> current = null;
+        boolean currentDepends = false;
+        for (Layer layer : style.getLayers()) {
+            if (current == null || layer.dependsOnAppIcon() != currentDepends) {
+                current = new ArrayList<Layer>(2);
+                currentDepends = layer.dependsOnAppIcon();
+                segments.add(current);
+            }
+            current.add(layer);
+        }
+        return segments;
+    }
+
+    private static String segmentKey(List<Layer> segment) {
+        final StringBuilder sb = new StringBuilder();
+        for (Layer layer : segment) {
+            if (sb.length() != 0) {
+                sb.append('+');
+            }
+            sb.append(layer);
+        }
+        return sb.toString();
+    }
+
+    private RenderGraph(IconStyle[] styles, Map<IconStyle, Node> leaves, int nodeCount,
+            int sharedCount) {
+        super();
+        styles_ = styles;
+        leaves_ = leaves;
+        nodeCount_ = nodeCount;
+        sharedCount_ = sharedCount;
+    }
+
+    /**
+     * @return コンパイルしたスタイル。コンパイル時の順に並びます。
+     */
+    public IconStyle[] getStyles() {
+        return styles_.clone();
+    }
+
+    /**
+     * @return 共有後のノードの数。
+     */
+    public int getNodeCount() {
+        return nodeCount_;
+    }
+
+    /**
+     * 指定されたオリジナルアイコンからショートカットアイコンを作成するセッションを開始します。
+     * 不要になったら {@link Session#release()} で中間画像を返却してください。
+     *
+     * @param originalIcon オリジナルアイコン。
+     * @return セッション。
+     */
+    public Session newSession(Bitmap originalIcon) {
+        return new Session(originalIcon);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RenderGraph[styles=" + styles_.length + ", nodes=" + nodeCount_ + ", shared="
+                + sharedCount_ + ", plates=" + plates_.size() + ", plateBytes=" + plateBytes_
+                + ", plateBuild=" + plateBuildCount_ + ", plateRecycle=" + plateRecycleCount_
+                + "]";
+    }
+
+    /**
+     * 保持しているアプリアイコンに依存しない中間画像をすべて破棄します。描画中のものは、描画の完了後に
+     * {@link BitmapPool} に返却します。以降に必要になった中間画像は作成し直します。
+     */
+    public void evictPlates() {
+        final List<Bitmap> unused;
+        synchronized (this) {
+            unused = evictPlatesLocked();
+        }
+        releaseAll(unused);
+    }
+
+    /**
+     * アプリアイコンに依存しないノードの中間画像を、描画中として返します。作成済みでなければ作成します。
+     * 描画が終わったら {@link #releasePlate(Plate)} を呼び出すこと。
+     * <p>
+     * 作成する場合は、未完成の中間画像をロック内で登録してバイト数を計上し、描画はロックの外で行います。
+     * 同じ中間画像を必要とする他のスレッドは、その完成を待ちます。他の中間画像の取得や返却は待たされません。
+     * </p>
+     */
+    private Plate acquirePlate(Resources res, Node node, int width, int height) {
+        final String key = node.key_ + '/' + width + 'x' + height;
+        List<Bitmap> unused = null;
+        final Plate plate;
+        final boolean owner;
+        synchronized (this) {
+            Plate found = plates_.get(key);
+            owner = (found == null);
+            if (owner) {
+                final int bytes = width * height * 4; // ARGB_8888
+                if (plateBytes_ + bytes > MAX_PLATE_BYTES) {
+                    unused = evictPlatesLocked();
+                }
+                found = new Plate(bytes);
+                plates_.put(key, found);
+                plateBytes_ += bytes;
+                plateBuildCount_++;
+            }
+            found.users_++;
+            plate = found;
+        }
+        if (unused != null) {
+            releaseAll(unused);
+        }
+        if (owner) {
+            buildPlate(res, node, key, plate, width, height);
+        } else {
+            awaitPlate(key, plate);
+        }
+        return plate;
+    }
+
+    /**
+     * 登録済みの未完成の中間画像を、ロックの外で描画して完成させます。失敗した場合は登録を取り消し、
+     * 完成を待っているスレッドにも失敗を通知します。
+     */
+    private void buildPlate(Resources res, Node node, String key, Plate plate, int width,
+            int height) {
+        final BitmapPool pool = BitmapPool.getInstance();
+        Bitmap image = null;
+        boolean built = false;
+        try {
+            image = pool.obtain(width, height);
+            node.drawSegment(new Canvas(image), res, null, width, height);
+            built = true;
+        } finally {
+            synchronized (this) {
+                if (built) {
+                    plate.image_ = image;
+                } else {
+                    plate.failed_ = true;
+                    plate.users_--;
+                    if (plates_.get(key) == plate) {
+                        plates_.remove(key);
+                        plateBytes_ -= plate.bytes_;
+                    }
+                }
+                notifyAll();
+            }
+            if (!built && image != null) {
+                pool.release(image);
+            }
+        }
+    }
+
+    /**
+     * 他のスレッドが作成中の中間画像の完成を待ちます。作成に失敗した場合は、描画中として数えた分を取り消して例外を投げます。
+     */
+    private synchronized void awaitPlate(String key, Plate plate) {
+        boolean interrupted = false;
+        while (plate.image_ == null && !plate.failed_) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // 描画は短時間で終わるため、完成まで待ってから割り込み状態を戻す。
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (plate.failed_) {
+            plate.users_--;
+            throw new IllegalStateException("failed to build plate: " + key);
+        }
+    }
+
+    /**
+     * {@link #acquirePlate} で取得した中間画像の描画が終わったことを通知します。
+     * 破棄済みで描画中のものがなくなれば {@link BitmapPool} に返却します。
+     */
+    private void releasePlate(Plate plate) {
+        final Bitmap image;
+        synchronized (this) {
+            plate.users_--;
+            if (!plate.evicted_ || plate.users_ > 0) {
+                return;
+            }
+            image = plate.image_;
+            plateRecycleCount_++;
+        }
+        if (image != null) {
+            BitmapPool.getInstance().release(image);
+        }
+    }
+
+    /**
+     * すべての中間画像を破棄済みにし、描画中でないものを返します。 {@code this} で同期した状態で呼び出すこと。
+     */
+    private List<Bitmap> evictPlatesLocked() {
+        final List<Bitmap> unused = new ArrayList<Bitmap>(plates_.size());
+        for (Plate plate : plates_.values()) {
+            plate.evicted_ = true;
+            // 作成中のものは作成したスレッドが描画中として数えているため、ここには含まれない。
+            final Bitmap image = plate.image_;
+            if (plate.users_ == 0 && image != null) {
+                unused.add(image);
+                plateRecycleCount_++;
+            }
+        }
+        plates_.clear();
+        plateBytes_ = 0;
+        return unused;
+    }
+
+    private static void releaseAll(List<Bitmap> unused) {
+        final BitmapPool pool = BitmapPool.getInstance();
+        for (Bitmap image : unused) {
+            pool.release(image);
+        }
+    }
+
+    private Node leafOf(IconStyle style) {
+        final Node leaf = leaves_.get(style);
+        if (leaf == null) {
+            throw new IllegalArgumentException("style is not compiled into this graph: " + style);
+        }
+        return leaf;
+    }
+
+    /**
+     * 1 つのオリジナルアイコンから、このグラフのスタイルのショートカットアイコンを作成するセッションです。
+     * オリジナルアイコンのミップマップと、アプリアイコンに依存する共有ノードの中間画像を保持し、スタイル間で共有します。
+     * <p>
+     * 不要になったら {@link #release()} を呼び出してください。作成中のアイコンがあれば、その完了後に中間画像を
+     * {@link BitmapPool} に返却します。 {@link #release()} 後も作成はできますが、中間画像は共有されなくなります。
+     * </p>
+     *
+     * @author zaki
+     */
+    public final class Session {
+        private final Bitmap originalIcon_;
+
+        private final IconMipChain mipChain_;
+
+        /** アプリアイコンに依存する共有ノードの中間画像。 {@code this} で同期してアクセスすること。 */
+        private final Map<Node, Bitmap> shared_ = new HashMap<Node, Bitmap>();
+
+        /** 作成中のアイコンの数。 {@code this} で同期してアクセスすること。 */
+        private int active_ = 0;
+
+        /** {@link #release()} 済みであれば {@code true}。 {@code this} で同期してアクセスすること。 */
+        private boolean released_ = false;
+
+        Session(Bitmap originalIcon) {
+            super();
+            originalIcon_ = originalIcon;
+            mipChain_ = new IconMipChain(originalIcon);
+        }
+
+        /**
+         * @return このセッションのオリジナルアイコン。
+         */
+        public Bitmap getOriginalIcon() {
+            return originalIcon_;
+        }
+
+        /**
+         * 指定されたスタイルのショートカットアイコンを、このセッションの中間画像を使って作成する
+         * {@link ShortcutIconCreator} を返します。
+         * <p>
+         * 返されるクリエータの {@link ShortcutIconCreator#build(Context, Bitmap)} は、
+         * このセッションのオリジナルアイコンを対象とした呼び出しにのみ使用してください。
+         * </p>
+         *
+         * @param style スタイル。このグラフにコンパイルされていること。
+         * @return このセッションに結び付いたクリエータ。
+         */
+        public ShortcutIconCreator creatorFor(final IconStyle style) {
+            leafOf(style);
+            return new ShortcutIconCreator() {
+                @Override
+                public String getStyleId() {
+                    return style.getId();
+                }
+
+                @Override
+                public Bitmap build(Context appContext, Bitmap originalIcon) {
+                    if (originalIcon != originalIcon_) {
+                        throw new IllegalArgumentException("icon does not belong to this session");
+                    }
+                    return compose(appContext.getResources(), style);
+                }
+            };
+        }
+
+        /**
+         * 中間画像を {@link BitmapPool} に返却し、オリジナルアイコンから作成した縮小画像を破棄します。
+         * 作成中のアイコンがあれば、最後の作成が完了した時点で返却します。複数回呼び出しても構いません。
+         */
+        public void release() {
+            final List<Bitmap> unused;
+            synchronized (this) {
+                released_ = true;
+                if (active_ > 0) {
+                    return;
+                }
+                unused = drain();
+            }
+            recycle(unused);
+        }
+
+        /**
+         * スタイルのレイヤーを下から順に重ねて、ショートカットアイコンを作成します。
+         */
+        Bitmap compose(Resources res, IconStyle style) {
+            final Node leaf = leafOf(style);
+            final int width = originalIcon_.getWidth();
+            final int height = originalIcon_.getHeight();
+            synchronized (this) {
+                active_++;
+            }
+            try {
+                final Bitmap shortcutIcon = BitmapPool.getInstance().obtain(width, height);
+                drawNode(new Canvas(shortcutIcon), res, leaf, width, height);
+                return shortcutIcon;
+            } finally {
+                List<Bitmap> unused = null;
+                synchronized (this) {
+                    active_--;
+                    if (released_ && active_ == 0) {
+                        unused = drain();
+                    }
+                }
+                if (unused != null) {
+                    recycle(unused);
+                }
+            }
+        }
+
+        /**
+         * 透明な描画先に、指定されたノードまでのレイヤーを重ねます。中間画像があればそれを使用します。
+         */
+        private void drawNode(Canvas canvas, Resources res, Node node, int width, int height) {
+            if (node.parent_ == null && !node.dependsOnAppIcon_) {
+                final Plate plate = acquirePlate(res, node, width, height);
+                try {
+                    // acquirePlate() が返した時点で完成している。
+                    canvas.drawBitmap(plate.image_, 0, 0, null);
+                } finally {
+                    releasePlate(plate);
+                }
+                return;
+            }
+            if (node.isShared()) {
+                canvas.drawBitmap(getShared(res, node, width, height), 0, 0, null);
+                return;
+            }
+            drawThrough(canvas, res, node, width, height);
+        }
+
+        /**
+         * 透明な描画先に、指定されたノードの親までを重ね、その上にノードのセグメントを描画します。
+         */
+        private void drawThrough(Canvas canvas, Resources res, Node node, int width, int height) {
+            final Node parent = node.parent_;
+            if (parent != null) {
+                drawNode(canvas, res, parent, width, height);
+            }
+            node.drawSegment(canvas, res, mipChain_, width, height);
+        }
+
+        /**
+         * アプリアイコンに依存する共有ノードの中間画像を返します。作成済みでなければ作成します。
+         */
+        private Bitmap getShared(Resources res, Node node, int width, int height) {
+            synchronized (this) {
+                final Bitmap cached = shared_.get(node);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            // 描画はロックの外で行う。同じノードを同時に作成した場合は先に登録された方を使う。
+            final BitmapPool pool = BitmapPool.getInstance();
+            final Bitmap image = pool.obtain(width, height);
+            drawThrough(new Canvas(image), res, node, width, height);
+            final Bitmap winner;
+            synchronized (this) {
+                final Bitmap raced = shared_.get(node);
+                if (raced == null) {
+                    shared_.put(node, image);
+                    return image;
+                }
+                winner = raced;
+            }
+            pool.release(image);
+            return winner;
+        }
+
+        /**
+         * 保持している中間画像を取り出します。 {@code this} で同期した状態で呼び出すこと。
+         */
+        private List<Bitmap> drain() {
+            final List<Bitmap> unused = new ArrayList<Bitmap>(shared_.values());
+            shared_.clear();
+            return unused;
+        }
+
+        private void recycle(List<Bitmap> unused) {
+            releaseAll(unused);
+            mipChain_.recycle();
+        }
+    }
+
+    /**
+     * アプリアイコンに依存しないノードの中間画像と、その利用状況です。 {@link RenderGraph} で同期してアクセスすること。
+     */
+    private static final class Plate {
+        /** {@link RenderGraph#plateBytes_} に計上したバイト数。 */
+        final int bytes_;
+
+        /** 中間画像。作成中であれば {@code null}。 */
+        @CheckForNull
+        Bitmap image_ = null;
+
+        /** 作成に失敗していれば {@code true}。 */
+        boolean failed_ = false;
+
+        /** 描画中と、完成を待っている数。 */
+        int users_ = 0;
+
+        /** {@link RenderGraph#plates_} から破棄済みであれば {@code true}。 */
+        boolean evicted_ = false;
+
+        Plate(int bytes) {
+            bytes_ = bytes;
+        }
+    }
+
+    /**
+     * 下から順にたどったセグメントの並びを表すノードです。
+     */
+    private static final class Node {
+        /** 一番下からこのノードまでのセグメントを識別する文字列。 */
+        final String key_;
+
+        @CheckForNull
+        final Node parent_;
+
+        /** このノードで親の上に重ねるレイヤー。 */
+        final List<Layer> segment_;
+
+        /** 一番下からこのノードまでに、アプリアイコンに依存するレイヤーがあれば {@code true}。 */
+        final boolean dependsOnAppIcon_;
+
+        /** このノードの上に重ねる子ノードの数と、このノードで終わるスタイルの数の合計。コンパイル後は変更しない。 */
+        int consumers_ = 0;
+
+        Node(String key, @CheckForNull Node parent, List<Layer> segment) {
+            key_ = key;
+            parent_ = parent;
+            segment_ = segment;
+            boolean depends = (parent != null && parent.dependsOnAppIcon_);
+            for (Layer layer : segment) {
+                depends |= layer.dependsOnAppIcon();
+            }
+            dependsOnAppIcon_ = depends;
+        }
+
+        /**
+         * @return アプリアイコンに依存し、複数のスタイルで使われるノードであれば {@code true}。
+         */
+        boolean isShared() {
+            return dependsOnAppIcon_ && consumers_ > 1;
+        }
+
+        /**
+         * このノードのセグメントのレイヤーを、下から順に描画先に重ねます。
+         */
+        void drawSegment(Canvas canvas, Resources res, @CheckForNull IconMipChain mipChain,
+                int width, int height) {
+            for (Layer layer : segment_) {
+                layer.draw(canvas, res, mipChain, width, height);
+            }
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.icon;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * アイコンの作成・読み込みを、優先度に従って順に実行するスケジューラです。
+ * <p>
+ * 作成処理はキーで識別します。同じキーの処理が実行待ち・実行中であれば新たに実行せず、その処理の結果を
+ * 共有します。その際、既存の処理より高い優先度で要求された場合は、優先度を引き上げます。実行待ちであれば
+ * 実行順を、実行中であれば実行しているワーカースレッドのスレッド優先度を引き上げます。
+ * 要求ごとに返される {@link Ticket} で要求を取り消すことができ、すべての要求が取り消された処理は
+ * 実行待ちであれば実行されません。
+ * </p>
+ * <p>
+ * インスタンスは {@link org.zakky.stickyshortcut.StickyShortcutApplication} が保持します。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class RenderScheduler {
+    private static final String TAG = RenderScheduler.class.getSimpleName();
+
+    /**
+     * 処理の優先度です。宣言順に優先されます。
+     */
+    public enum Priority {
+        /** ユーザがタップしたアプリの候補アイコン。 */
+        USER,
+        /** グリッドに表示中のアプリのサムネイル。 */
+        VISIBLE,
+        /** 表示範囲外のサムネイルの先読みや、候補アイコンの先行作成。 */
+        SPECULATIVE,
+    }
+
+    /**
+     * 処理の完了を受け取るコールバックです。取り消された要求については、どちらのメソッドも呼び出されません。
+     */
+    public interface Callback {
+        /**
+         * 処理が完了した際に、 UI スレッドから呼び出されます。
+         *
+         * @param result 処理の結果。同じキーの要求の間で共有されるため、変更・ {@code recycle()} 禁止。
+         */
+        void onRendered(Bitmap result);
+
+        /**
+         * 処理が例外を投げたか {@code null} を返した際に、 UI スレッドから呼び出されます。
+         */
+        void onFailed();
+    }
+
+    private final Handler handler_ = new Handler(Looper.getMainLooper());
+
+    private final ThreadPoolExecutor executor_;
+
+    /** 実行待ち・実行中の処理。 {@code this} で同期してアクセスすること。 */
+    private final Map<String, Task> tasks_ = new HashMap<String, Task>();
+
+    /** 処理の受付順。同じ優先度の処理は受付順に実行する。 {@code this} で同期してアクセスすること。 */
+    private long sequence_ = 0L;
+
+    private int mergeCount_ = 0;
+
+    private int cancelCount_ = 0;
+
+    /**
+     * 指定された数のワーカースレッドで処理を実行するスケジューラを構築します。
+     *
+     * @param threads ワーカースレッドの数。
+     */
+    public RenderScheduler(int threads) {
+        super();
+        executor_ = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(16, new Comparator<Runnable>() {
+                    @Override
+                    public int compare(Runnable r1, Runnable r2) {
+                        return ((Task) r1).compareTo((Task) r2);
+                    }
+                }), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "RenderScheduler");
+                    }
+                });
+        // 優先度の引き上げはキューを直接操作するため、ワーカースレッドを先に起動しておく。
+        executor_.prestartAllCoreThreads();
+    }
+
+    /**
+     * 処理の実行を要求します。
+     *
+     * @param key 処理を識別するキー。同じキーの処理は同じ結果を返すこと。
+     * @param priority 優先度。
+     * @param work 処理。ワーカースレッドで実行されます。同じキーの処理が実行待ち・実行中であれば使用しません。
+     * @param callback 完了時に呼び出されるコールバック。結果が不要であれば {@code null}。
+     * @return 要求。
+     */
+    public synchronized Ticket submit(String key, Priority priority, Callable<Bitmap> work,
+            @CheckForNull Callback callback) {
+        Task task = tasks_.get(key);
+        if (task == null) {
+            task = new Task(key, priority, work, sequence_++);
+            tasks_.put(key, task);
+            final Ticket ticket = new Ticket(task, callback);
+            task.tickets_.add(ticket);
+            executor_.execute(task);
+            return ticket;
+        }
+
+        mergeCount_++;
+        final Ticket ticket = new Ticket(task, callback);
+        task.tickets_.add(ticket);
+        if (priority.compareTo(task.priority_) < 0) {
+            if (task.started_) {
+                // 実行中の処理は、実行しているワーカースレッドの優先度を引き上げる。
+                task.priority_ = priority;
+                Process.setThreadPriority(task.tid_, threadPriorityOf(priority));
+            } else if (executor_.getQueue().remove(task)) {
+                // ヒープ内の順序を保つため、取り除いてから優先度を変更し、入れ直す。
+                task.priority_ = priority;
+                executor_.getQueue().add(task);
+            }
+        }
+        return ticket;
+    }
+
+    /**
+     * 指定された優先度の処理を実行する際の、ワーカースレッドのスレッド優先度を返します。
+     */
+    private static int threadPriorityOf(Priority priority) {
+        switch (priority) {
+        case USER:
+            // ユーザが結果を待っているため、 UI スレッドと同じ優先度で実行する。
+            return Process.THREAD_PRIORITY_DEFAULT;
+        case VISIBLE:
+            return Process.THREAD_PRIORITY_BACKGROUND;
+        default:
+            return Process.THREAD_PRIORITY_LOWEST;
+        }
+    }
+
+    /**
+     * 指定されたキーの処理に対する要求をすべて取り消します。
+     *
+     * @param key 処理を識別するキー。
+     */
+    public synchronized void cancel(String key) {
+        final Task task = tasks_.get(key);
+        if (task == null) {
+            return;
+        }
+        for (Ticket ticket : new ArrayList<Ticket>(task.tickets_)) {
+            ticket.cancel();
+        }
+    }
+
+    /**
+     * 実行待ちの処理をすべて破棄し、ワーカースレッドを終了します。
+     */
+    public void shutdown() {
+        executor_.shutdownNow();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RenderScheduler[pending=" + tasks_.size() + ", merge=" + mergeCount_
+                + ", cancel=" + cancelCount_ + "]";
+    }
+
+    /**
+     * 処理の実行を要求したことを表すオブジェクトです。要求元ごとに作成されます。
+     *
+     * @author zaki
+     */
+    public final class Ticket {
+        private final Task task_;
+
+        @CheckForNull
+        private final Callback callback_;
+
+        private volatile boolean cancelled_ = false;
+
+        Ticket(Task task, @CheckForNull Callback callback) {
+            super();
+            task_ = task;
+            callback_ = callback;
+        }
+
+        /**
+         * 要求を取り消します。コールバックは呼び出されなくなります。同じ処理に対する他の要求がなく、
+         * 処理が実行待ちであれば、処理も実行されません。
+         */
+        public void cancel() {
+            synchronized (RenderScheduler.this) {
+                if (cancelled_) {
+                    return;
+                }
+                cancelled_ = true;
+                cancelCount_++;
+                task_.tickets_.remove(this);
+                if (task_.tickets_.isEmpty() && !task_.started_) {
+                    executor_.getQueue().remove(task_);
+                    removeTask(task_);
+                }
+            }
+        }
+
+        /**
+         * @return 取り消されていれば {@code true}。
+         */
+        public boolean isCancelled() {
+            return cancelled_;
+        }
+    }
+
+    /**
+     * 同じキーの要求をまとめた、 1 つの処理です。
+     */
+    private final class Task implements Runnable, Comparable<Task> {
+        final String key_;
+
+        final Callable<Bitmap> work_;
+
+        final long sequence_;
+
+        /** 優先度。 {@link RenderScheduler} で同期してアクセスすること。 */
+        Priority priority_;
+
+        /** この処理に対する要求。 {@link RenderScheduler} で同期してアクセスすること。 */
+        final List<Ticket> tickets_ = new ArrayList<Ticket>(2);
+
+        /** 実行を開始していれば {@code true}。 {@link RenderScheduler} で同期してアクセスすること。 */
+        boolean started_ = false;
+
+        /** 実行しているワーカースレッドのスレッド ID。 {@link RenderScheduler} で同期してアクセスすること。 */
+        int tid_ = 0;
+
+        Task(String key, Priority priority, Callable<Bitmap> work, long sequence) {
+            super();
+            key_ = key;
+            priority_ = priority;
+            work_ = work;
+            sequence_ = sequence;
+        }
+
+        @Override
+        public void run() {
+            synchronized (RenderScheduler.this) {
+                if (tasks_.get(key_) != this || tickets_.isEmpty()) {
+                    // すべての要求が取り消された
+                    return;
+                }
+                started_ = true;
+                tid_ = Process.myTid();
+                // 開始後の引き上げと競合しないよう、ロック内で設定する。
+                Process.setThreadPriority(threadPriorityOf(priority_));
+            }
+
+            Bitmap result = null;
+            try {
+                result = work_.call();
+            } catch (Exception e) {
+                Log.w(TAG, "failed to render: " + key_, e);
+            } finally {
+                // Error (OutOfMemoryError など) で抜ける場合も、キーを解放して失敗を通知する。
+                // 通知しないと、同じキーの以降の要求がこの処理に合流したまま完了しなくなる。
+                deliver(result);
+            }
+        }
+
+        /**
+         * この処理を {@link RenderScheduler} から取り除き、結果を UI スレッドで要求元に通知します。
+         *
+         * @param result 結果。失敗した場合は {@code null}。
+         */
+        private void deliver(@CheckForNull final Bitmap result) {
+            final List<Ticket> tickets;
+            synchronized (RenderScheduler.this) {
+                removeTask(this);
+                tickets = new ArrayList<Ticket>(tickets_);
+            }
+            handler_.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Ticket ticket : tickets) {
+                        final Callback callback = ticket.callback_;
+                        if (callback == null || ticket.isCancelled()) {
+                            continue;
+                        }
+                        if (result == null) {
+                            callback.onFailed();
+                        } else {
+                            callback.onRendered(result);
+                        }
+                    }
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            final int byPriority = priority_.compareTo(other.priority_);
+            if (byPriority != 0) {
+                return byPriority;
+            }
+            return (sequence_ < other.sequence_) ? -1 : ((sequence_ == other.sequence_) ? 0 : 1);
+        }
+    }
+
+    /**
+     * {@code this} で同期した状態で呼び出すこと。
+     */
+    private void removeTask(Task task) {
+        if (tasks_.get(task.key_) == task) {
+            tasks_.remove(task.key_);
+        }
+    }
+}
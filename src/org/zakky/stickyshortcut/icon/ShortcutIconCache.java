@@ -0,0 +1,629 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.icon;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.DefaultAnnotation;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * 作成済みのショートカットアイコンを保持する、メモリとディスクの 2 段構成のキャッシュです。
+ * <p>
+ * メモリ上の LRU でヒットしなかった場合はアプリ専用のキャッシュディレクトリに保存された PNG を読み込みます。
+ * どちらもバイト数の上限を持ち、上限を超えると最も長く使われていないものから破棄します。
+ * メモリ上の上限は、ホームアプリのアイコンの大きさから求めたアイコン数分のバイト数とし、ヒープの上限の一定の割合で頭打ちにします。
+ * </p>
+ * <p>
+ * タップされる前に先行して作成したアイコンは {@link #putSpeculative(Key, Bitmap)}
+ * で、メモリ上の別の領域に保持します。この領域は独自の上限を持ちディスクにも書き込まないため、
+ * 先行作成がタップ時に作成したアイコンを追い出すことはありません。 {@link #get(Key)}
+ * でヒットしたアイコンは、通常の領域に移してディスクにも保存します。
+ * </p>
+ * <p>
+ * キーには対象アプリのバージョン情報が含まれるため、対象アプリが更新されると古いアイコンはヒットしなくなります。
+ * 古いアイコンは、同じパッケージの新しいアイコンを保存する際か {@link #invalidatePackage(String)}
+ * の呼び出し時に削除されます。
+ * </p>
+ * <p>
+ * このキャッシュから返された {@link Bitmap} は他の呼び出し元と共有されているため、呼び出し側で
+ * {@link Bitmap#recycle()} したり、内容を変更したりしないでください。
+ * </p>
+ *
+ * @author zaki
+ */
+@DefaultAnnotation(NonNull.class)
+public final class ShortcutIconCache {
+    private static final String TAG = ShortcutIconCache.class.getSimpleName();
+
+    /** メモリ上に保持するアイコンの数。 1 アプリ分の候補アイコン(スタイル 7 種)を 2 アプリ分保持できる数とする。 */
+    private static final int MEMORY_ICONS = 16;
+
+    /** 先行して作成したアイコンとしてメモリ上に保持するアイコンの数。表示中の数アプリ分の候補アイコンを保持できる数とする。 */
+    private static final int SPECULATIVE_ICONS = 32;
+
+    /** メモリ上の各領域が使用できるバイト数の、ヒープの上限に対する割合の逆数。 */
+    private static final int HEAP_FRACTION = 16;
+
+    /** ディスク上に保持するファイルのバイト数の上限。 */
+    private static final long MAX_DISK_BYTES = 2 * 1024 * 1024;
+
+    /** キャッシュディレクトリ名。 */
+    private static final String DIR_NAME = "shortcut_icons";
+
+    /** ファイル名の各要素の区切り文字。パッケージ名やクラス名に現れない文字であること。 */
+    private static final char SEPARATOR = '~';
+
+    private static final String SUFFIX = ".png";
+
+    @CheckForNull
+    private static ShortcutIconCache instance_ = null;
+
+    /**
+     * プロセス全体で共有される {@link ShortcutIconCache} を返します。
+     *
+     * @param context コンテキスト。初回呼び出し時にキャッシュディレクトリの決定に使用します。
+     * @return {@link ShortcutIconCache} のインスタンス。
+     */
+    public static synchronized ShortcutIconCache getInstance(Context context) {
+        ShortcutIconCache instance = instance_;
+        if (instance == null) {
+            final Context appContext = context.getApplicationContext();
+            final File root = new File(appContext.getCacheDir(), DIR_NAME);
+            // 自アプリの更新でスタイルが変わる可能性があるため、自アプリのバージョンごとにディレクトリを分ける。
+            final String ownStamp = getVersionStamp(appContext.getPackageManager(),
+                    appContext.getPackageName());
+            final int iconSize = IconSizeResolver.getLauncherIconSize(appContext);
+            final int iconBytes = iconSize * iconSize * 4;
+            final long heapBytes = Runtime.getRuntime().maxMemory() / HEAP_FRACTION;
+            instance = new ShortcutIconCache(root, "v" + ownStamp,
+                    (int) Math.min(heapBytes, (long) MEMORY_ICONS * iconBytes),
+                    (int) Math.min(heapBytes, (long) SPECULATIVE_ICONS * iconBytes));
+            Log.d(TAG, "memory capacity: " + instance.maxMemoryBytes_ + "B, speculative capacity: "
+                    + instance.maxSpeculativeBytes_ + "B");
+            instance_ = instance;
+        }
+        return instance;
+    }
+
+    /**
+     * 指定されたパッケージのバージョンを表す文字列を返します。
+     * <p>
+     * {@code versionCode} と APK ファイルの更新日時から構成されるため、同じ {@code versionCode}
+     * のまま再インストールされた場合も異なる値になります。
+     * </p>
+     *
+     * @param pm パッケージマネージャ。
+     * @param packageName パッケージ名。
+     * @return バージョンを表す文字列。パッケージがインストールされていない場合は {@code "0"}。
+     */
+    public static String getVersionStamp(PackageManager pm, String packageName) {
+        final PackageInfo info;
+        try {
+            info = pm.getPackageInfo(packageName, 0);
+        } catch (NameNotFoundException e) {
+            return "0";
+        }
+        long lastUpdateTime = 0L;
+        if (info.applicationInfo != null && info.applicationInfo.sourceDir != null) {
+            lastUpdateTime = new File(info.applicationInfo.sourceDir).lastModified();
+        }
+        return info.versionCode + "-" + Long.toString(lastUpdateTime, Character.MAX_RADIX);
+    }
+
+    /** 自アプリのバージョンごとのキャッシュディレクトリ。 */
+    private final File dir_;
+
+    /** メモリ上に保持する {@link Bitmap} のバイト数の上限。 */
+    private final int maxMemoryBytes_;
+
+    /** 先行して作成したアイコンとしてメモリ上に保持する {@link Bitmap} のバイト数の上限。 */
+    private final int maxSpeculativeBytes_;
+
+    /** メモリ上のキャッシュ。 {@code this} で同期してアクセスすること。 */
+    private final LinkedHashMap<Key, Bitmap> memory_ = new LinkedHashMap<Key, Bitmap>(16, 0.75f,
+            true);
+
+    private int memoryBytes_ = 0;
+
+    /** 先行して作成したアイコンのメモリ上のキャッシュ。 {@code this} で同期してアクセスすること。 */
+    private final LinkedHashMap<Key, Bitmap> speculative_ = new LinkedHashMap<Key, Bitmap>(16,
+            0.75f, true);
+
+    private int speculativeBytes_ = 0;
+
+    /**
+     * ディスク上のキャッシュファイル名とそのサイズ。アクセス順に並ぶ。 {@code this} で同期してアクセスすること。
+     * 初回アクセス時に構築します。
+     */
+    @CheckForNull
+    private LinkedHashMap<String, Long> disk_ = null;
+
+    private long diskBytes_ = 0L;
+
+    private int memoryHitCount_ = 0;
+
+    private int diskHitCount_ = 0;
+
+    private int speculativeHitCount_ = 0;
+
+    private int missCount_ = 0;
+
+    private ShortcutIconCache(File root, String ownVersion, int maxMemoryBytes,
+            int maxSpeculativeBytes) {
+        super();
+        dir_ = new File(root, ownVersion);
+        maxMemoryBytes_ = maxMemoryBytes;
+        maxSpeculativeBytes_ = maxSpeculativeBytes;
+    }
+
+    /**
+     * 先行して作成したアイコンとしてメモリ上に保持できるバイト数を返します。
+     * これを超えて先行作成しても、先に作成したアイコンを追い出すだけになります。
+     *
+     * @return 先行作成用の領域のバイト数の上限。
+     */
+    public int getSpeculativeCapacity() {
+        return maxSpeculativeBytes_;
+    }
+
+    /**
+     * キャッシュからショートカットアイコンを取得します。
+     * <p>
+     * ディスクからの読み込みが発生する可能性があるため、 UI スレッドから呼び出さないでください。
+     * </p>
+     *
+     * @param key キー。
+     * @return キャッシュされていたアイコン。キャッシュされていない場合は {@code null}。
+     *         共有されているため変更・ {@code recycle()} 禁止。
+     */
+    @CheckForNull
+    public Bitmap get(Key key) {
+        final File file;
+        final Bitmap promoted;
+        synchronized (this) {
+            final Bitmap cached = memory_.get(key);
+            if (cached != null) {
+                memoryHitCount_++;
+                return cached;
+            }
+            promoted = speculative_.remove(key);
+            if (promoted != null) {
+                speculativeBytes_ -= sizeOf(promoted);
+                speculativeHitCount_++;
+                putToMemory(key, promoted);
+                file = null;
+            } else {
+                final LinkedHashMap<String, Long> disk = ensureDiskIndex();
+                if (disk.get(key.fileName_) == null) {
+                    missCount_++;
+                    return null;
+                }
+                file = new File(dir_, key.fileName_);
+            }
+        }
+        if (promoted != null) {
+            // 先行作成したアイコンが使われたので、ディスクにも保存する。
+            writeToDisk(key, promoted);
+            return promoted;
+        }
+
+        final Bitmap loaded = BitmapFactory.decodeFile(file.getPath());
+        synchronized (this) {
+            if (loaded == null) {
+                // 壊れている、または外部から削除された
+                removeFile(key.fileName_);
+                missCount_++;
+                return null;
+            }
+            diskHitCount_++;
+            putToMemory(key, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * ショートカットアイコンをキャッシュに追加します。同じパッケージの古いバージョンのアイコンは削除します。
+     * <p>
+     * ディスクへの書き込みが発生するため、 UI スレッドから呼び出さないでください。
+     * </p>
+     *
+     * @param key キー。
+     * @param icon 作成済みのアイコン。以降、呼び出し側で変更・ {@code recycle()} しないこと。
+     */
+    public void put(Key key, Bitmap icon) {
+        synchronized (this) {
+            removeStale(key);
+            final Bitmap speculative = speculative_.remove(key);
+            if (speculative != null) {
+                speculativeBytes_ -= sizeOf(speculative);
+            }
+            putToMemory(key, icon);
+        }
+        writeToDisk(key, icon);
+    }
+
+    /**
+     * 先行して作成したショートカットアイコンを、メモリ上の先行作成用の領域に追加します。ディスクには書き込みません。
+     * 同じパッケージの古いバージョンのアイコンは削除します。
+     *
+     * @param key キー。
+     * @param icon 作成済みのアイコン。以降、呼び出し側で変更・ {@code recycle()} しないこと。
+     */
+    public synchronized void putSpeculative(Key key, Bitmap icon) {
+        if (memory_.containsKey(key)) {
+            return;
+        }
+        removeStale(key);
+        final Bitmap old = speculative_.put(key, icon);
+        if (old != null) {
+            speculativeBytes_ -= sizeOf(old);
+        }
+        speculativeBytes_ += sizeOf(icon);
+
+        final Iterator<Map.Entry<Key, Bitmap>> it = speculative_.entrySet().iterator();
+        while (speculativeBytes_ > maxSpeculativeBytes_ && it.hasNext()) {
+            final Map.Entry<Key, Bitmap> eldest = it.next();
+            speculativeBytes_ -= sizeOf(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * 指定されたキーのアイコンが、メモリ上かディスク上にキャッシュされているかどうかを返します。
+     * {@link #get(Key)} と異なり、ディスクからの読み込みや、先行作成用の領域からの移動は行いません。
+     *
+     * @param key キー。
+     * @return キャッシュされていれば {@code true}。
+     */
+    public synchronized boolean contains(Key key) {
+        return memory_.containsKey(key) || speculative_.containsKey(key)
+                || ensureDiskIndex().containsKey(key.fileName_);
+    }
+
+    /**
+     * アイコンを PNG としてディスクに保存し、索引に登録します。
+     */
+    private void writeToDisk(Key key, Bitmap icon) {
+        if (!dir_.isDirectory() && !dir_.mkdirs()) {
+            Log.w(TAG, "failed to create cache directory: " + dir_);
+            return;
+        }
+        final File tmp = new File(dir_, key.fileName_ + ".tmp");
+        final File file = new File(dir_, key.fileName_);
+        try {
+            final OutputStream os = new FileOutputStream(tmp);
+            try {
+                icon.compress(Bitmap.CompressFormat.PNG, 100, os);
+            } finally {
+                os.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write icon cache: " + file, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            final LinkedHashMap<String, Long> disk = ensureDiskIndex();
+            final Long old = disk.put(key.fileName_, Long.valueOf(file.length()));
+            if (old != null) {
+                diskBytes_ -= old.longValue();
+            }
+            diskBytes_ += file.length();
+            trimDisk(MAX_DISK_BYTES);
+        }
+    }
+
+    /**
+     * 指定されたパッケージのアイコンをすべて破棄します。対象パッケージが更新・削除された際に呼び出してください。
+     *
+     * @param packageName パッケージ名。
+     */
+    public synchronized void invalidatePackage(String packageName) {
+        final Iterator<Map.Entry<Key, Bitmap>> it = memory_.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Key, Bitmap> entry = it.next();
+            if (entry.getKey().packageName_.equals(packageName)) {
+                memoryBytes_ -= sizeOf(entry.getValue());
+                it.remove();
+            }
+        }
+        final Iterator<Map.Entry<Key, Bitmap>> sit = speculative_.entrySet().iterator();
+        while (sit.hasNext()) {
+            final Map.Entry<Key, Bitmap> entry = sit.next();
+            if (entry.getKey().packageName_.equals(packageName)) {
+                speculativeBytes_ -= sizeOf(entry.getValue());
+                sit.remove();
+            }
+        }
+
+        final String prefix = packageName + SEPARATOR;
+        final List<String> targets = new ArrayList<String>();
+        for (String name : ensureDiskIndex().keySet()) {
+            if (name.startsWith(prefix)) {
+                targets.add(name);
+            }
+        }
+        for (String name : targets) {
+            removeFile(name);
+        }
+    }
+
+    /**
+     * 指定された {@link Bitmap} をメモリ上のキャッシュが保持しているかどうかを返します。
+     * <p>
+     * 保持されている {@link Bitmap} は他の呼び出し元と共有されるため、 {@link BitmapPool} へ返却してはいけません。
+     * </p>
+     *
+     * @param bitmap 調べる {@link Bitmap}。
+     * @return 保持していれば {@code true}。
+     */
+    public synchronized boolean isRetained(Bitmap bitmap) {
+        for (Bitmap retained : memory_.values()) {
+            if (retained == bitmap) {
+                return true;
+            }
+        }
+        for (Bitmap retained : speculative_.values()) {
+            if (retained == bitmap) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * メモリ上のキャッシュをすべて破棄します。ディスク上のキャッシュは保持します。
+     */
+    public synchronized void evictMemory() {
+        memory_.clear();
+        memoryBytes_ = 0;
+        speculative_.clear();
+        speculativeBytes_ = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ShortcutIconCache[memory=" + memory_.size() + "/" + memoryBytes_ + "/"
+                + maxMemoryBytes_ + "B, speculative=" + speculative_.size() + "/"
+                + speculativeBytes_ + "/" + maxSpeculativeBytes_ + "B, disk="
+                + ((disk_ == null) ? 0 : disk_.size()) + "/" + diskBytes_ + "B, memoryHit="
+                + memoryHitCount_ + ", speculativeHit=" + speculativeHitCount_ + ", diskHit="
+                + diskHitCount_ + ", miss=" + missCount_ + "]";
+    }
+
+    /*
+     * 以下のメソッドは、 this で同期した状態で呼び出すこと。
+     */
+
+    private void putToMemory(Key key, Bitmap icon) {
+        final Bitmap old = memory_.put(key, icon);
+        if (old != null) {
+            memoryBytes_ -= sizeOf(old);
+        }
+        memoryBytes_ += sizeOf(icon);
+
+        final Iterator<Map.Entry<Key, Bitmap>> it = memory_.entrySet().iterator();
+        while (memoryBytes_ > maxMemoryBytes_ && it.hasNext()) {
+            final Map.Entry<Key, Bitmap> eldest = it.next();
+            memoryBytes_ -= sizeOf(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * 指定されたキーと同じパッケージ・アクティビティで、バージョンが異なるアイコンを削除します。
+     */
+    private void removeStale(Key key) {
+        final Iterator<Map.Entry<Key, Bitmap>> it = memory_.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Key, Bitmap> entry = it.next();
+            if (entry.getKey().isStaleVersionOf(key)) {
+                memoryBytes_ -= sizeOf(entry.getValue());
+                it.remove();
+            }
+        }
+        final Iterator<Map.Entry<Key, Bitmap>> sit = speculative_.entrySet().iterator();
+        while (sit.hasNext()) {
+            final Map.Entry<Key, Bitmap> entry = sit.next();
+            if (entry.getKey().isStaleVersionOf(key)) {
+                speculativeBytes_ -= sizeOf(entry.getValue());
+                sit.remove();
+            }
+        }
+
+        final String prefix = key.packageName_ + SEPARATOR + key.activityFqcn_ + SEPARATOR;
+        final String current = prefix + key.versionStamp_ + SEPARATOR;
+        final List<String> targets = new ArrayList<String>();
+        for (String name : ensureDiskIndex().keySet()) {
+            if (name.startsWith(prefix) && !name.startsWith(current)) {
+                targets.add(name);
+            }
+        }
+        for (String name : targets) {
+            removeFile(name);
+        }
+    }
+
+    private void removeFile(String name) {
+        final LinkedHashMap<String, Long> disk = ensureDiskIndex();
+        final Long size = disk.remove(name);
+        if (size != null) {
+            diskBytes_ -= size.longValue();
+        }
+        new File(dir_, name).delete();
+    }
+
+    private void trimDisk(long maxBytes) {
+        final Iterator<Map.Entry<String, Long>> it = ensureDiskIndex().entrySet().iterator();
+        while (diskBytes_ > maxBytes && it.hasNext()) {
+            final Map.Entry<String, Long> eldest = it.next();
+            diskBytes_ -= eldest.getValue().longValue();
+            new File(dir_, eldest.getKey()).delete();
+            it.remove();
+        }
+    }
+
+    /**
+     * ディスク上のキャッシュの索引を返します。未構築であれば、ディレクトリを走査して構築します。
+     * その際、自アプリの他のバージョン用のディレクトリは削除します。
+     */
+    private LinkedHashMap<String, Long> ensureDiskIndex() {
+        LinkedHashMap<String, Long> disk = disk_;
+        if (disk != null) {
+            return disk;
+        }
+        disk = new LinkedHashMap<String, Long>(64, 0.75f, true);
+        disk_ = disk;
+        diskBytes_ = 0L;
+
+        final File root = dir_.getParentFile();
+        final File[] versions = (root == null) ? null : root.listFiles();
+        if (versions != null) {
+            for (File version : versions) {
+                if (!version.equals(dir_)) {
+                    deleteRecursively(version);
+                }
+            }
+        }
+
+        final File[] files = dir_.listFiles();
+        if (files == null) {
+            return disk;
+        }
+        // 更新日時の古い順に登録することで、古いものから破棄されるようにする。
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                final long t1 = f1.lastModified();
+                final long t2 = f2.lastModified();
+                return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            disk.put(file.getName(), Long.valueOf(file.length()));
+            diskBytes_ += file.length();
+        }
+        return disk;
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * {@link ShortcutIconCache} のキーです。
+     */
+    @DefaultAnnotation(NonNull.class)
+    public static final class Key {
+        private final String packageName_;
+
+        private final String activityFqcn_;
+
+        private final String versionStamp_;
+
+        /** ディスク上のファイル名。 */
+        private final String fileName_;
+
+        /**
+         * キーを構築します。
+         *
+         * @param packageName 対象アプリのパッケージ名。
+         * @param activityFqcn 対象アクティビティの FQCN。
+         * @param versionStamp 対象アプリのバージョン。 {@link ShortcutIconCache#getVersionStamp} の戻り値。
+         * @param styleId アイコンのスタイル識別子。 {@link ShortcutIconCreator#getStyleId()} の戻り値。
+         * @param size アイコンのピクセル数。
+         */
+        public Key(String packageName, String activityFqcn, String versionStamp, String styleId,
+                int size) {
+            super();
+            packageName_ = packageName;
+            activityFqcn_ = activityFqcn;
+            versionStamp_ = versionStamp;
+            fileName_ = packageName + SEPARATOR + activityFqcn + SEPARATOR + versionStamp
+                    + SEPARATOR + styleId + SEPARATOR + size + SUFFIX;
+        }
+
+        /**
+         * このキーが、指定されたキーと同じアクティビティの異なるバージョンを表すかどうかを返します。
+         */
+        boolean isStaleVersionOf(Key other) {
+            return packageName_.equals(other.packageName_)
+                    && activityFqcn_.equals(other.activityFqcn_)
+                    && !versionStamp_.equals(other.versionStamp_);
+        }
+
+        @Override
+        public int hashCode() {
+            return fileName_.hashCode();
+        }
+
+        @Override
+        public boolean equals(@CheckForNull Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return fileName_.equals(other.fileName_);
+        }
+
+        @Override
+        public String toString() {
+            return fileName_;
+        }
+    }
+}
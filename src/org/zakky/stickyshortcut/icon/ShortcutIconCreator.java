@@ -34,7 +34,20 @@ public interface ShortcutIconCreator {
      *
      * @param appContext アプリケーションコンテキスト。 {@code null} 禁止。
      * @param originalIcon ショートカットアプリアイコン。 {@code null} 禁止。
-     * @return 作成されたショートカットアイコン。 必ず新たに作成された {@link Bitmap} オブジェクトが返ります。
+     * @return 作成されたショートカットアイコン。 必ず他から参照されていない変更可能な {@link Bitmap}
+     *         オブジェクトが返ります。 {@link BitmapPool} から取得したものの場合があるため、不要になったら
+     *         {@link BitmapPool#release(Bitmap)} で返却できます。
      */
     public Bitmap build(Context appContext, Bitmap originalIcon);
+
+    /**
+     * このクリエータが作成するアイコンのスタイルを識別する文字列を返します。
+     * <p>
+     * 作成済みアイコンのキャッシュのキーやファイル名の一部として使用されるため、英数字と {@code '-'}
+     * のみで構成し、同じ見た目のアイコンを作成するクリエータは同じ値を返すようにしてください。
+     * </p>
+     *
+     * @return スタイル識別子。
+     */
+    public String getStyleId();
 }
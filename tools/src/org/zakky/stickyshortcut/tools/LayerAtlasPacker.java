@@ -0,0 +1,199 @@
+/*
+ * Copyright 2011 YAMAZAKI Makoto<makoto1975@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zakky.stickyshortcut.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+
+/**
+ * レイヤー画像の PNG をまとめて、展開不要の生ピクセルのアトラスファイルを作成するビルド用のツールです。
+ * <p>
+ * 実行時に読み込む側は {@code org.zakky.stickyshortcut.icon.LayerAtlas} です。ファイル形式はそちらを
+ * 参照してください。ビルド時に {@code build.xml} の {@code layer-atlas} ターゲットから実行されます。
+ * </p>
+ *
+ * <pre>
+ * java org.zakky.stickyshortcut.tools.LayerAtlasPacker &lt;出力ファイル&gt; &lt;入力ディレクトリ&gt; &lt;ファイル名の正規表現&gt;
+ * </pre>
+ *
+ * @author zaki
+ */
+public final class LayerAtlasPacker {
+
+    /*
+     * 以下の定数は LayerAtlas と一致させること。
+     */
+
+    private static final int MAGIC = 0x53534C41; // "SSLA"
+
+    private static final int VERSION = 1;
+
+    private static final int FORMAT_ARGB_8888 = 0;
+
+    private static final int FORMAT_ALPHA_8 = 1;
+
+    /** ピクセルデータの先頭の境界。 */
+    private static final int ALIGNMENT = 4;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("usage: LayerAtlasPacker <output> <input dir> <file name regex>");
+            System.exit(1);
+        }
+        final File output = new File(args[0]);
+        final File inputDir = new File(args[1]);
+        final Pattern pattern = Pattern.compile(args[2]);
+
+        final File[] files = inputDir.listFiles();
+        if (files == null) {
+            throw new IOException("not a directory: " + inputDir);
+        }
+        Arrays.sort(files);
+        final List<Layer> layers = new ArrayList<Layer>();
+        for (File file : files) {
+            if (!pattern.matcher(file.getName()).matches()) {
+                continue;
+            }
+            final BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                throw new IOException("failed to read image: " + file);
+            }
+            final String name = file.getName().replaceFirst("\\.[^.]*$", "");
+            layers.add(new Layer(name, image));
+        }
+
+        final byte[] header = buildHeader(layers);
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+        try {
+            out.write(header);
+            for (Layer layer : layers) {
+                out.write(layer.pixels_);
+                out.write(new byte[padding(layer.pixels_.length)]);
+            }
+        } finally {
+            out.close();
+        }
+        System.out.println("packed " + layers.size() + " layers into " + output);
+    }
+
+    /**
+     * ヘッダを作成します。ピクセルデータの位置はヘッダの大きさに依存するため、位置を決めてから作り直します。
+     */
+    private static byte[] buildHeader(List<Layer> layers) throws IOException {
+        byte[] header = writeHeader(layers, 0);
+        final int dataStart = header.length + padding(header.length);
+        header = writeHeader(layers, dataStart);
+        final byte[] padded = new byte[dataStart];
+        System.arraycopy(header, 0, padded, 0, header.length);
+        return padded;
+    }
+
+    private static byte[] writeHeader(List<Layer> layers, int dataStart) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(layers.size());
+        int offset = dataStart;
+        for (Layer layer : layers) {
+            out.writeUTF(layer.name_);
+            out.writeShort(layer.width_);
+            out.writeShort(layer.height_);
+            out.writeByte(layer.format_);
+            out.writeInt(offset);
+            offset += layer.pixels_.length + padding(layer.pixels_.length);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static int padding(int length) {
+        return (ALIGNMENT - length % ALIGNMENT) % ALIGNMENT;
+    }
+
+    /**
+     * アトラスに格納する 1 枚のレイヤーです。
+     */
+    private static final class Layer {
+        final String name_;
+
+        final int width_;
+
+        final int height_;
+
+        final int format_;
+
+        /** Android の {@code Bitmap} のメモリ上の並びと同じ、乗算済みの R, G, B, A の順のバイト列。 */
+        final byte[] pixels_;
+
+        Layer(String name, BufferedImage image) {
+            name_ = name;
+            width_ = image.getWidth();
+            height_ = image.getHeight();
+
+            final int[] argb = image.getRGB(0, 0, width_, height_, null, 0, width_);
+            boolean alphaOnly = true;
+            for (int p : argb) {
+                if ((p & 0xFFFFFF) != 0 && (p >>> 24) != 0) {
+                    alphaOnly = false;
+                    break;
+                }
+            }
+
+            if (alphaOnly) {
+                format_ = FORMAT_ALPHA_8;
+                pixels_ = new byte[argb.length];
+                for (int i = 0; i < argb.length; i++) {
+                    pixels_[i] = (byte) (argb[i] >>> 24);
+                }
+                return;
+            }
+
+            format_ = FORMAT_ARGB_8888;
+            pixels_ = new byte[argb.length * 4];
+            for (int i = 0; i < argb.length; i++) {
+                final int p = argb[i];
+                final int a = p >>> 24;
+                pixels_[i * 4] = (byte) premultiply((p >> 16) & 0xFF, a);
+                pixels_[i * 4 + 1] = (byte) premultiply((p >> 8) & 0xFF, a);
+                pixels_[i * 4 + 2] = (byte) premultiply(p & 0xFF, a);
+                pixels_[i * 4 + 3] = (byte) a;
+            }
+        }
+
+        private static int premultiply(int c, int a) {
+            final int v = c * a + 128;
+            return (v + (v >> 8)) >> 8;
+        }
+    }
+
+    private LayerAtlasPacker() {
+        throw new AssertionError("instantiation prohibited");
+    }
+}